@@ -1,14 +1,18 @@
 package com.davidmedenjak.redditsample.auth;
 
+import android.accounts.AccountManager;
 import android.content.Context;
 import android.content.Intent;
 import android.util.Base64;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.davidmedenjak.auth.AsyncAuthCallback;
 import com.davidmedenjak.auth.AuthCallback;
 import com.davidmedenjak.auth.AuthenticatorService;
 import com.davidmedenjak.auth.TokenPair;
+import com.davidmedenjak.auth.TokenRefreshError;
 import com.davidmedenjak.redditsample.BuildConfig;
 import com.davidmedenjak.redditsample.app.App;
 import com.davidmedenjak.redditsample.auth.api.RedditAuthApi;
@@ -18,6 +22,8 @@ import com.davidmedenjak.redditsample.auth.login.LoginActivity;
 import java.io.IOException;
 import java.nio.charset.Charset;
 
+import retrofit2.Call;
+import retrofit2.Callback;
 import retrofit2.HttpException;
 import retrofit2.Response;
 
@@ -41,8 +47,11 @@ public class RedditAuthenticatorService extends AuthenticatorService {
         return new RedditAuthCallback(this, authApiService);
     }
 
-    /** A callback that refreshes a users token at the reddit API. */
-    private static class RedditAuthCallback implements AuthCallback {
+    /**
+     * A callback that refreshes a users token at the reddit API. By also implementing {@link
+     * AsyncAuthCallback} refreshes get enqueued with OkHttp instead of blocking a thread.
+     */
+    private static class RedditAuthCallback implements AuthCallback, AsyncAuthCallback {
         private static final String CLIENT_ID = BuildConfig.REDDIT_API_CLIENT_ID;
 
         private final RedditAuthApi service;
@@ -60,25 +69,82 @@ public class RedditAuthenticatorService extends AuthenticatorService {
 
         @NonNull
         @Override
-        public TokenPair authenticate(@NonNull String refreshToken) throws IOException {
+        public TokenPair authenticate(@NonNull String refreshToken)
+                throws IOException, TokenRefreshError {
+            final Response<TokenResponse> response = createRefreshCall(refreshToken).execute();
+            return parseTokenPair(response, refreshToken);
+        }
+
+        @Override
+        public void authenticate(@NonNull String refreshToken, @NonNull TokenCallback callback) {
+            createRefreshCall(refreshToken)
+                    .enqueue(
+                            new Callback<TokenResponse>() {
+                                @Override
+                                public void onResponse(
+                                        @NonNull Call<TokenResponse> call,
+                                        @NonNull Response<TokenResponse> response) {
+                                    final TokenPair tokenPair;
+                                    try {
+                                        tokenPair = parseTokenPair(response, refreshToken);
+                                    } catch (HttpException | TokenRefreshError e) {
+                                        callback.onError(e);
+                                        return;
+                                    }
+                                    callback.onTokenRefreshed(tokenPair);
+                                }
+
+                                @Override
+                                public void onFailure(
+                                        @NonNull Call<TokenResponse> call, @NonNull Throwable t) {
+                                    callback.onError(t);
+                                }
+                            });
+        }
+
+        @NonNull
+        private Call<TokenResponse> createRefreshCall(@NonNull String refreshToken) {
             String clientId = getBasicAuthForClientId();
             String grantType = "refresh_token";
 
-            final Response<TokenResponse> response =
-                    service.authenticate(clientId, grantType, refreshToken).execute();
+            return service.authenticate(clientId, grantType, refreshToken);
+        }
 
+        @NonNull
+        private static TokenPair parseTokenPair(
+                @NonNull Response<TokenResponse> response, @NonNull String refreshToken)
+                throws TokenRefreshError {
             if (response.isSuccessful() && response.body() != null) {
                 final TokenResponse tokenResponse = response.body();
                 final String newRefreshToken =
                         tokenResponse.refreshToken != null
                                 ? tokenResponse.refreshToken
                                 : refreshToken;
-                return new TokenPair(tokenResponse.accessToken, newRefreshToken);
+                return TokenPair.withExpiresIn(
+                        tokenResponse.accessToken, newRefreshToken, tokenResponse.expiresIn);
+            } else if (response.code() == 429 || response.code() == 503) {
+                // let the authenticator know when it is worth trying again
+                throw new TokenRefreshError(
+                        AccountManager.ERROR_CODE_NETWORK_ERROR,
+                        response.message(),
+                        parseRetryAfterMillis(response.headers().get("Retry-After")));
             } else {
                 throw new HttpException(response);
             }
         }
 
+        private static long parseRetryAfterMillis(@Nullable String retryAfter) {
+            if (retryAfter == null) {
+                return 0L;
+            }
+            try {
+                return Long.parseLong(retryAfter.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                // HTTP dates are not supported
+                return 0L;
+            }
+        }
+
         @NonNull
         private static String getBasicAuthForClientId() {
             byte[] basicAuthBytes = (CLIENT_ID + ":").getBytes();
@@ -74,7 +74,9 @@ public class LoginActivity extends AppCompatActivity {
                 AccountData.with("comment_karma", String.valueOf(commentKarma))
                         .and("link_karma", String.valueOf(linkKarma));
 
-        TokenPair tokenPair = new TokenPair(user.first.accessToken, user.first.refreshToken);
+        TokenPair tokenPair =
+                TokenPair.withExpiresIn(
+                        user.first.accessToken, user.first.refreshToken, user.first.expiresIn);
         accountManager.login(user.second.name, tokenPair, data);
 
         startActivity(new Intent(this, HomeActivity.class));
@@ -36,7 +36,7 @@ public class HomeActivity extends AppCompatActivity implements OnAccountsUpdateL
 
         adapter =
                 new RedditAccountAdapter(
-                        accountManager,
+                        oauthAccountManager,
                         account -> startActivity(LatestCommentsActivity.newIntent(this, account)));
 
         RecyclerView recyclerView = findViewById(R.id.recycler_view);
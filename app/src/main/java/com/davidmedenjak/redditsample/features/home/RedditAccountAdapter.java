@@ -1,7 +1,6 @@
 package com.davidmedenjak.redditsample.features.home;
 
 import android.accounts.Account;
-import android.accounts.AccountManager;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
@@ -10,15 +9,18 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import com.davidmedenjak.auth.manager.AccountDataSnapshot;
+import com.davidmedenjak.auth.manager.OAuthAccountManager;
 import com.davidmedenjak.redditsample.R;
 
 class RedditAccountAdapter extends RecyclerView.Adapter<AccountViewHolder> {
 
     private Account[] accounts;
-    private final AccountManager accountManager;
+    private final OAuthAccountManager accountManager;
     private AccountSelectionListener callback;
 
-    public RedditAccountAdapter(AccountManager accountManager, AccountSelectionListener callback) {
+    public RedditAccountAdapter(
+            OAuthAccountManager accountManager, AccountSelectionListener callback) {
         this.accountManager = accountManager;
         this.callback = callback;
     }
@@ -41,8 +43,10 @@ class RedditAccountAdapter extends RecyclerView.Adapter<AccountViewHolder> {
     public void onBindViewHolder(@NonNull AccountViewHolder holder, int position) {
         Account account = accounts[position];
         holder.name.setText(account.name);
-        long linkKarma = Long.parseLong(accountManager.getUserData(account, "link_karma"));
-        long commentKarma = Long.parseLong(accountManager.getUserData(account, "comment_karma"));
+        // served from memory while scrolling
+        AccountDataSnapshot data = accountManager.getAccountData(account);
+        long linkKarma = data.getLong("link_karma", 0);
+        long commentKarma = data.getLong("comment_karma", 0);
 
         holder.itemView.setOnClickListener(__ -> callback.onAccountSelected(account));
 
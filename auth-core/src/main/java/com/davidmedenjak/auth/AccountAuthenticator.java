@@ -0,0 +1,96 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Provides access tokens to use for network requests.
+ *
+ * <p>You can use {@code com.davidmedenjak.auth.manager.OAuthAccountManager} from the {@code auth}
+ * module for a basic implementation.
+ */
+public interface AccountAuthenticator {
+
+    /**
+     * Get an access token for the current user.
+     *
+     * @return the access token
+     * @throws IOException if there was an error retrieving the token
+     */
+    @NonNull
+    String getAccessToken() throws IOException;
+
+    /**
+     * Get a new access token that does not match {@code invalidAccessToken}. Use this method to ask
+     * for a new AccessToken after a failed HTTP request.
+     *
+     * @param invalidAccessToken the invalid access token previously used
+     * @return a new access token != {@code invalidAccessToken}
+     * @throws IOException if there was an error retrieving the token
+     */
+    @NonNull
+    String getNewAccessToken(String invalidAccessToken) throws IOException;
+
+    /**
+     * Get an access token for the current user without blocking the calling thread.
+     *
+     * <p>The default implementation calls {@link #getAccessToken()} and thus <i>does</i> block the
+     * calling thread. Implementations should override this if they can do better.
+     *
+     * @param callback receives the access token or an error
+     * @see #getAccessToken()
+     */
+    default void getAccessToken(@NonNull Callback callback) {
+        final String accessToken;
+        try {
+            accessToken = getAccessToken();
+        } catch (IOException e) {
+            callback.onError(e);
+            return;
+        }
+        callback.onAccessToken(accessToken);
+    }
+
+    /**
+     * Get a new access token that does not match {@code invalidAccessToken} without blocking the
+     * calling thread.
+     *
+     * <p>The default implementation calls {@link #getNewAccessToken(String)} and thus <i>does</i>
+     * block the calling thread. Implementations should override this if they can do better.
+     *
+     * @param invalidAccessToken the invalid access token previously used
+     * @param callback receives the new access token or an error
+     * @see #getNewAccessToken(String)
+     */
+    default void getNewAccessToken(
+            @Nullable String invalidAccessToken, @NonNull Callback callback) {
+        final String accessToken;
+        try {
+            accessToken = getNewAccessToken(invalidAccessToken);
+        } catch (IOException e) {
+            callback.onError(e);
+            return;
+        }
+        callback.onAccessToken(accessToken);
+    }
+
+    /** Receives the result of an asynchronous access token lookup. */
+    interface Callback {
+
+        /**
+         * Called with the access token once it is available.
+         *
+         * @param accessToken the access token
+         */
+        void onAccessToken(@NonNull String accessToken);
+
+        /**
+         * Called if there was an error retrieving the token.
+         *
+         * @param error the error
+         */
+        void onError(@NonNull IOException error);
+    }
+}
@@ -0,0 +1,24 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Provides an {@link AccountAuthenticator} for each of several accounts, so that requests can be
+ * sent as different users.
+ *
+ * <p>You can use {@code com.davidmedenjak.auth.manager.OAuthAccountManager} from the {@code auth}
+ * module for a basic implementation.
+ */
+public interface AccountAuthenticatorProvider {
+
+    /**
+     * Get the authenticator for an account. Implementations should return the same authenticator
+     * for the same account, so that its token lookups and refreshes get coalesced.
+     *
+     * @param accountName the name of the account
+     * @return the authenticator that provides the tokens of {@code accountName}
+     * @throws IllegalArgumentException if there is no account named {@code accountName}
+     */
+    @NonNull
+    AccountAuthenticator getAuthenticator(@NonNull String accountName);
+}
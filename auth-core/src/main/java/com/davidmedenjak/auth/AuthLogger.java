@@ -0,0 +1,45 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Receives debug logs of token lookups and refreshes.
+ *
+ * <p>Log messages only get built if {@link #isLoggable()} returns true, so a disabled logger costs
+ * a single check. Tokens never get logged in full, see {@link #redact(String)}.
+ */
+public interface AuthLogger {
+
+    /** Drops all logs. */
+    AuthLogger NONE =
+            new AuthLogger() {
+                @Override
+                public boolean isLoggable() {
+                    return false;
+                }
+
+                @Override
+                public void log(@NonNull String message) {}
+            };
+
+    /** @return true if messages should be built and passed to {@link #log(String)} */
+    boolean isLoggable();
+
+    void log(@NonNull String message);
+
+    /**
+     * Shorten a token for logging, so that it can be told apart from others without leaking it.
+     *
+     * @param token the access or refresh token
+     * @return the first characters and the length of {@code token}
+     */
+    @NonNull
+    static String redact(@Nullable String token) {
+        if (token == null) {
+            return "null";
+        }
+        final int visible = token.length() > 12 ? 4 : 0;
+        return token.substring(0, visible) + "...(" + token.length() + " chars)";
+    }
+}
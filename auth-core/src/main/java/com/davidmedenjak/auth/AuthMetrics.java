@@ -0,0 +1,48 @@
+package com.davidmedenjak.auth;
+
+/**
+ * Receives measurements of token lookups and refreshes, e.g. to export them to a metrics backend.
+ *
+ * <p>Methods get called on the threads looking up tokens, often while other callers wait for the
+ * result. Implementations should only update counters and must not block. All methods do nothing
+ * by default.
+ *
+ * @see CountingAuthMetrics
+ */
+public interface AuthMetrics {
+
+    /** Ignores all measurements. */
+    AuthMetrics NONE = new AuthMetrics() {};
+
+    /**
+     * An access token was looked up in the store or cache.
+     *
+     * @param hit true if the token could be used right away, false if it had to be refreshed
+     */
+    default void onAccessTokenLookup(boolean hit) {}
+
+    /**
+     * A token refresh succeeded.
+     *
+     * @param durationMillis how long the refresh took
+     * @param waiters the number of callers that received the refreshed token
+     */
+    default void onRefreshSucceeded(long durationMillis, int waiters) {}
+
+    /**
+     * A token refresh failed.
+     *
+     * @param errorCode the {@link TokenRefreshError#getCode() error code}
+     * @param durationMillis how long the refresh took
+     * @param waiters the number of callers that received the error
+     */
+    default void onRefreshFailed(int errorCode, long durationMillis, int waiters) {}
+
+    /**
+     * A token refresh was not attempted, because refreshes are on hold after a network error.
+     *
+     * @param errorCode the {@link TokenRefreshError#getCode() error code} of the failed refresh
+     * @param waiters the number of callers that received the error
+     */
+    default void onRefreshRejected(int errorCode, int waiters) {}
+}
@@ -0,0 +1,31 @@
+package com.davidmedenjak.auth;
+
+/** Source of the current time used for token expiry and refresh backoff. */
+public interface Clock {
+
+    /** Uses {@link System#currentTimeMillis()} and {@link System#nanoTime()}. */
+    Clock SYSTEM =
+            new Clock() {
+                @Override
+                public long currentTimeMillis() {
+                    return System.currentTimeMillis();
+                }
+
+                @Override
+                public long elapsedMillis() {
+                    return System.nanoTime() / 1_000_000L;
+                }
+            };
+
+    /**
+     * @return the current time in milliseconds since the epoch, to compare with {@link
+     *     TokenPair#expiresAt}
+     */
+    long currentTimeMillis();
+
+    /**
+     * @return monotonic time in milliseconds, to measure intervals. Not related to the wall clock
+     *     time.
+     */
+    long elapsedMillis();
+}
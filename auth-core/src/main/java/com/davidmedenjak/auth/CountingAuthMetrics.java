@@ -0,0 +1,195 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link AuthMetrics} that keeps counters and histograms in memory, to be read and exported
+ * periodically. Recording a measurement only updates a few atomic counters and never allocates.
+ */
+public final class CountingAuthMetrics implements AuthMetrics {
+
+    /** Error codes from this one up share a single counter. */
+    private static final int MAX_ERROR_CODE = 15;
+
+    private final AtomicLong lookupHits = new AtomicLong();
+    private final AtomicLong lookupMisses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failedRefreshes = new AtomicLong();
+    private final AtomicLong rejectedRefreshes = new AtomicLong();
+    private final AtomicLongArray errors = new AtomicLongArray(MAX_ERROR_CODE + 1);
+
+    private final Histogram refreshMillis = new Histogram();
+    private final Histogram waiters = new Histogram();
+
+    @Override
+    public void onAccessTokenLookup(boolean hit) {
+        (hit ? lookupHits : lookupMisses).incrementAndGet();
+    }
+
+    @Override
+    public void onRefreshSucceeded(long durationMillis, int waiters) {
+        refreshes.incrementAndGet();
+        refreshMillis.record(durationMillis);
+        this.waiters.record(waiters);
+    }
+
+    @Override
+    public void onRefreshFailed(int errorCode, long durationMillis, int waiters) {
+        refreshes.incrementAndGet();
+        failedRefreshes.incrementAndGet();
+        errors.incrementAndGet(errorIndex(errorCode));
+        refreshMillis.record(durationMillis);
+        this.waiters.record(waiters);
+    }
+
+    @Override
+    public void onRefreshRejected(int errorCode, int waiters) {
+        rejectedRefreshes.incrementAndGet();
+        errors.incrementAndGet(errorIndex(errorCode));
+    }
+
+    /** @return the number of lookups that returned a token right away */
+    public long getLookupHits() {
+        return lookupHits.get();
+    }
+
+    /** @return the number of lookups that needed a refresh */
+    public long getLookupMisses() {
+        return lookupMisses.get();
+    }
+
+    /** @return the number of refreshes, including failed ones */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    public long getFailedRefreshCount() {
+        return failedRefreshes.get();
+    }
+
+    /** @return the number of refreshes skipped while refreshes were on hold */
+    public long getRejectedRefreshCount() {
+        return rejectedRefreshes.get();
+    }
+
+    /**
+     * @param errorCode the {@link TokenRefreshError#getCode() error code}
+     * @return how often refreshes failed or were rejected with {@code errorCode}
+     */
+    public long getErrorCount(int errorCode) {
+        return errors.get(errorIndex(errorCode));
+    }
+
+    /** @return the duration of refreshes in milliseconds */
+    @NonNull
+    public Histogram getRefreshMillis() {
+        return refreshMillis;
+    }
+
+    /** @return the number of callers waiting for each refresh */
+    @NonNull
+    public Histogram getWaiters() {
+        return waiters;
+    }
+
+    private static int errorIndex(int errorCode) {
+        return errorCode >= 0 && errorCode < MAX_ERROR_CODE ? errorCode : MAX_ERROR_CODE;
+    }
+
+    @Override
+    public String toString() {
+        return "CountingAuthMetrics{"
+                + "lookupHits="
+                + lookupHits
+                + ", lookupMisses="
+                + lookupMisses
+                + ", refreshes="
+                + refreshes
+                + ", failedRefreshes="
+                + failedRefreshes
+                + ", rejectedRefreshes="
+                + rejectedRefreshes
+                + ", refreshMillis="
+                + refreshMillis
+                + ", waiters="
+                + waiters
+                + '}';
+    }
+
+    /**
+     * A histogram of non-negative values with power of two buckets. Percentiles are reported as
+     * the upper bound of their bucket, so they are accurate within a factor of two.
+     */
+    public static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            final long positive = Math.max(value, 0);
+            buckets.incrementAndGet(bucket(positive));
+            count.incrementAndGet();
+            sum.addAndGet(positive);
+
+            long current;
+            while (positive > (current = max.get())) {
+                if (max.compareAndSet(current, positive)) break;
+            }
+        }
+
+        /** Bucket {@code i} holds values up to {@code 2^i - 1}. */
+        private static int bucket(long value) {
+            return Math.min(64 - Long.numberOfLeadingZeros(value), 63);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param percentile the percentile between 0 and 1, e.g. {@code 0.99}
+         * @return an upper bound of the value at {@code percentile}, or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            final long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min((1L << i) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        @Override
+        public String toString() {
+            return "{count="
+                    + count
+                    + ", p50="
+                    + getPercentile(0.5)
+                    + ", p99="
+                    + getPercentile(0.99)
+                    + ", max="
+                    + max
+                    + '}';
+        }
+    }
+}
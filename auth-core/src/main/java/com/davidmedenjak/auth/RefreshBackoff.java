@@ -0,0 +1,128 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Circuit breaker for token refreshes that failed with a network error.
+ *
+ * <p>After a refresh fails with {@link TokenRefreshError#ERROR_CODE_NETWORK_ERROR} no further
+ * refreshes should be attempted for the account until the backoff passed. The backoff doubles with
+ * every consecutive failure up to {@link #MAX_BACKOFF_MILLIS} and is jittered, so that not all
+ * clients retry at the same time once the server recovers. A {@link
+ * TokenRefreshError#getRetryAfterMillis() retry after} reported by the server is used as the
+ * minimum.
+ *
+ * <p>Errors with {@link TokenRefreshError#ERROR_CODE_REMOTE_EXCEPTION} mean that the refresh never
+ * reached the server, e.g. because too many refreshes were running, and don't change the backoff.
+ *
+ * @param <A> the type of the accounts
+ */
+final class RefreshBackoff<A> {
+
+    static final long INITIAL_BACKOFF_MILLIS = 1_000L;
+    static final long MAX_BACKOFF_MILLIS = 5 * 60_000L;
+
+    private final ConcurrentHashMap<A, Failure> failures = new ConcurrentHashMap<>();
+    private final Random random;
+
+    RefreshBackoff() {
+        this(new Random());
+    }
+
+    RefreshBackoff(@NonNull Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Check whether refreshes for {@code account} are currently on hold.
+     *
+     * @param account the account to refresh the token for
+     * @param now the current time in milliseconds
+     * @return the error of the last refresh while on hold, {@code null} if it may be refreshed
+     */
+    @Nullable
+    TokenRefreshError getError(@NonNull A account, long now) {
+        final Failure failure = failures.get(account);
+        if (failure == null || now >= failure.retryAt) {
+            return null;
+        }
+        return failure.error;
+    }
+
+    /**
+     * Record the result of a refresh.
+     *
+     * @param account the account the token was refreshed for
+     * @param error the error if the refresh failed, {@code null} on success
+     * @param now the current time in milliseconds
+     */
+    synchronized void onRefreshed(
+            @NonNull A account, @Nullable TokenRefreshError error, long now) {
+        if (error != null && error.getCode() == TokenRefreshError.ERROR_CODE_REMOTE_EXCEPTION) {
+            // the server wasn't asked, we know as much as before
+            return;
+        }
+        if (error == null || error.getCode() != TokenRefreshError.ERROR_CODE_NETWORK_ERROR) {
+            failures.remove(account);
+            return;
+        }
+
+        final Failure previous = failures.get(account);
+        final int count = previous == null ? 1 : previous.count + 1;
+        final long backoff = Math.max(error.getRetryAfterMillis(), jitter(backoffMillis(count)));
+        failures.put(account, new Failure(count, now + backoff, error));
+    }
+
+    /** Print the accounts with refreshes on hold. */
+    void dump(@NonNull PrintWriter writer, @NonNull String prefix, long now) {
+        boolean empty = true;
+        for (Map.Entry<A, Failure> entry : failures.entrySet()) {
+            final Failure failure = entry.getValue();
+            if (now >= failure.retryAt) continue;
+            empty = false;
+            writer.println(
+                    prefix
+                            + entry.getKey()
+                            + ": "
+                            + failure.count
+                            + " failures, last error "
+                            + failure.error.getCode()
+                            + ", on hold for "
+                            + (failure.retryAt - now)
+                            + "ms");
+        }
+        if (empty) {
+            writer.println(prefix + "none");
+        }
+    }
+
+    static long backoffMillis(int failureCount) {
+        // cap the shift before it could overflow
+        final int shift = Math.min(failureCount - 1, 20);
+        return Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << shift);
+    }
+
+    /** @return a random value between half of and the full {@code backoffMillis} */
+    private long jitter(long backoffMillis) {
+        final long half = backoffMillis / 2;
+        return half + (long) (random.nextDouble() * (backoffMillis - half));
+    }
+
+    private static final class Failure {
+        private final int count;
+        private final long retryAt;
+        private final TokenRefreshError error;
+
+        private Failure(int count, long retryAt, TokenRefreshError error) {
+            this.count = count;
+            this.retryAt = retryAt;
+            this.error = error;
+        }
+    }
+}
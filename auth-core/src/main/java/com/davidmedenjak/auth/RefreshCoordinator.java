@@ -0,0 +1,364 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands out access tokens and refreshes them when needed.
+ *
+ * <p>Token refreshes will always be done <i>once</i>. Even if multiple threads request a new access
+ * token simultaneously only one will refresh the token via {@link
+ * TokenRefresher#authenticate(String, TokenRefresher.TokenCallback)} and the result gets propagated
+ * to the others. Lookups are tracked per account <i>and</i> token type, so tokens of different
+ * types refresh independently of each other.
+ *
+ * <p>Tokens with a known {@link TokenPair#expiresAt expiry} get refreshed once they are about to
+ * expire, see {@link #setRefreshWindowMillis(long)}. If a refresh fails with a {@link
+ * TokenRefreshError#NETWORK network error}, further refreshes for the account are put on hold with
+ * a jittered, exponential backoff.
+ *
+ * <p>This class has no dependencies on Android, the {@code auth} module adapts it to the {@code
+ * AccountManager}.
+ *
+ * @param <A> the type of the accounts
+ */
+public final class RefreshCoordinator<A> {
+
+    private final Store<A> store;
+    private final TokenRefresher refresher;
+    private final Clock clock;
+
+    private final SingleFlight<TokenKey<A>, Listener> activeLookups = new SingleFlight<>();
+    private final RefreshBackoff<A> refreshBackoff;
+    private final RefreshHistory history = new RefreshHistory();
+    /** The last token refreshed per key, to know the lifetime of short-lived tokens. */
+    private final Map<TokenKey<A>, RefreshedToken> refreshedTokens = new ConcurrentHashMap<>();
+
+    private volatile long refreshWindowMillis = TokenExpiry.DEFAULT_REFRESH_WINDOW_MILLIS;
+    private volatile AuthMetrics metrics = AuthMetrics.NONE;
+    private volatile AuthLogger logger = AuthLogger.NONE;
+
+    /**
+     * @param store the store to read and write tokens
+     * @param refresher refreshes the tokens
+     * @param clock the time source for expiry and backoff
+     */
+    public RefreshCoordinator(
+            @NonNull Store<A> store, @NonNull TokenRefresher refresher, @NonNull Clock clock) {
+        this(store, refresher, clock, new RefreshBackoff<>());
+    }
+
+    RefreshCoordinator(
+            @NonNull Store<A> store,
+            @NonNull TokenRefresher refresher,
+            @NonNull Clock clock,
+            @NonNull RefreshBackoff<A> refreshBackoff) {
+        this.store = store;
+        this.refresher = refresher;
+        this.clock = clock;
+        this.refreshBackoff = refreshBackoff;
+    }
+
+    /**
+     * Get the access token, refreshing it if necessary.
+     *
+     * @param account the account
+     * @param authTokenType the type of the token
+     * @param listener receives the result, unless the token is returned right away
+     * @return the access token if it is available right away, in which case {@code listener} does
+     *     not get called, or {@code null} if the result will be sent to {@code listener}
+     */
+    @Nullable
+    public String getAccessToken(
+            @NonNull A account, @NonNull String authTokenType, @NonNull Listener listener) {
+        final TokenKey<A> key = new TokenKey<>(account, authTokenType);
+        if (!activeLookups.startOrJoin(key, listener)) {
+            // another thread is already working on it, the result will be sent to `listener`
+            return null;
+        }
+
+        boolean joined = false;
+        final String refreshToken;
+        try {
+            final String accessToken = store.peekAccessToken(account, authTokenType);
+
+            if (accessToken != null && !accessToken.isEmpty() && !isExpiring(key, accessToken)) {
+                metrics.onAccessTokenLookup(true);
+                activeLookups.complete(key, (l) -> l.onAccessToken(accessToken));
+                return accessToken;
+            }
+            metrics.onAccessTokenLookup(false);
+
+            // queue as well
+            activeLookups.join(key, listener);
+            joined = true;
+
+            final TokenRefreshError error = refreshBackoff.getError(account, clock.elapsedMillis());
+            if (error != null) {
+                // the last refresh failed recently, don't hit the server again yet
+                final int waiters = activeLookups.complete(key, (l) -> l.onError(error));
+                metrics.onRefreshRejected(error.getCode(), waiters);
+                history.record(key, clock.currentTimeMillis(), 0, waiters, error.getCode(), true);
+                if (logger.isLoggable()) {
+                    logger.log("Refresh for " + key + " on hold after error " + error.getCode());
+                }
+                return null;
+            }
+
+            refreshToken = store.getRefreshToken(account);
+        } catch (Exception e) {
+            // complete the lookup, otherwise every later caller would join it and wait forever
+            final TokenRefreshError error = mapError(e);
+            if (!joined) {
+                listener.onError(error);
+            }
+            activeLookups.complete(key, (l) -> l.onError(error));
+            if (logger.isLoggable()) {
+                logger.log("Lookup for " + key + " failed: " + error.getErrorMessage());
+            }
+            return null;
+        }
+        new Refresh(key).start(refreshToken);
+
+        // return result via listener async
+        return null;
+    }
+
+    private boolean isExpiring(@NonNull TokenKey<A> key, @NonNull String accessToken) {
+        final long expiresAt = store.getExpiresAt(key.account, key.authTokenType);
+        final RefreshedToken refreshed = refreshedTokens.get(key);
+        final long obtainedAt =
+                refreshed != null && refreshed.accessToken.equals(accessToken)
+                        ? refreshed.refreshedAt
+                        : TokenPair.NO_EXPIRY;
+        return TokenExpiry.isExpiring(
+                expiresAt, obtainedAt, clock.currentTimeMillis(), refreshWindowMillis);
+    }
+
+    public long getRefreshWindowMillis() {
+        return refreshWindowMillis;
+    }
+
+    /**
+     * Set how long before their expiry access tokens get refreshed. This only has an effect on
+     * tokens with a known {@link TokenPair#expiresAt expiry}. Tokens refreshed by this coordinator
+     * get refreshed after at most half of their lifetime, even if the window is longer.
+     *
+     * @param refreshWindowMillis the window in milliseconds, defaults to {@link
+     *     TokenExpiry#DEFAULT_REFRESH_WINDOW_MILLIS}
+     */
+    public void setRefreshWindowMillis(long refreshWindowMillis) {
+        this.refreshWindowMillis = refreshWindowMillis;
+    }
+
+    @NonNull
+    public AuthMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the listener to report lookups and refreshes to.
+     *
+     * @param metrics the listener, defaults to {@link AuthMetrics#NONE}
+     */
+    public void setMetrics(@NonNull AuthMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @NonNull
+    public AuthLogger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Set the logger for refreshes.
+     *
+     * @param logger the logger, defaults to {@link AuthLogger#NONE}
+     */
+    public void setLogger(@NonNull AuthLogger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Print the current state for diagnostics: the running lookups with the number of callers
+     * waiting for them, the accounts with refreshes on hold, and the most recent refreshes.
+     *
+     * @param writer the writer to print to
+     */
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println("Refresh window: " + refreshWindowMillis + "ms");
+
+        writer.println("Active lookups:");
+        final Map<TokenKey<A>, Integer> waiters = activeLookups.getWaiterCounts();
+        if (waiters.isEmpty()) {
+            writer.println("  none");
+        }
+        for (Map.Entry<TokenKey<A>, Integer> entry : waiters.entrySet()) {
+            writer.println("  " + entry.getKey() + ": " + entry.getValue() + " waiters");
+        }
+
+        writer.println("Refreshes on hold:");
+        refreshBackoff.dump(writer, "  ", clock.elapsedMillis());
+
+        writer.println("Recent refreshes:");
+        history.dump(writer, "  ");
+    }
+
+    /**
+     * Map an error thrown while refreshing the token to the error reported to listeners.
+     *
+     * @param error the error
+     * @return {@code error} if it is a {@link TokenRefreshError}, {@link TokenRefreshError#NETWORK}
+     *     for an {@link IOException}, or an {@link
+     *     TokenRefreshError#ERROR_CODE_UNSUPPORTED_OPERATION unsupported operation} otherwise
+     */
+    @NonNull
+    public static TokenRefreshError mapError(@NonNull Throwable error) {
+        if (error instanceof TokenRefreshError) {
+            return (TokenRefreshError) error;
+        } else if (error instanceof IOException) {
+            return TokenRefreshError.NETWORK;
+        } else {
+            return new TokenRefreshError(
+                    TokenRefreshError.ERROR_CODE_UNSUPPORTED_OPERATION, error.getMessage());
+        }
+    }
+
+    /**
+     * Persists the tokens of accounts.
+     *
+     * @param <A> the type of the accounts
+     */
+    public interface Store<A> {
+
+        @Nullable
+        String getRefreshToken(@NonNull A account);
+
+        @Nullable
+        String peekAccessToken(@NonNull A account, @NonNull String authTokenType);
+
+        /** @return the expiry of the access token, or {@link TokenPair#NO_EXPIRY} if unknown */
+        long getExpiresAt(@NonNull A account, @NonNull String authTokenType);
+
+        void storeTokens(
+                @NonNull A account, @NonNull String authTokenType, @NonNull TokenPair tokenPair);
+    }
+
+    /** Receives the result of {@link #getAccessToken(Object, String, Listener)}. */
+    public interface Listener {
+
+        void onAccessToken(@NonNull String accessToken);
+
+        void onError(@NonNull TokenRefreshError error);
+    }
+
+    private static final class RefreshedToken {
+
+        private final String accessToken;
+        private final long refreshedAt;
+
+        private RefreshedToken(@NonNull String accessToken, long refreshedAt) {
+            this.accessToken = accessToken;
+            this.refreshedAt = refreshedAt;
+        }
+    }
+
+    private class Refresh implements TokenRefresher.TokenCallback {
+
+        private final TokenKey<A> key;
+
+        private final long startedAt = clock.elapsedMillis();
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private Refresh(@NonNull TokenKey<A> key) {
+            this.key = key;
+        }
+
+        private void start(@Nullable String refreshToken) {
+            if (refreshToken == null) {
+                TokenRefreshError error =
+                        new TokenRefreshError(
+                                TokenRefreshError.ERROR_CODE_CANCELED,
+                                "Invalid stored refresh token `null`");
+                onError(error);
+                return;
+            }
+            try {
+                refresher.authenticate(refreshToken, this);
+            } catch (Exception e) {
+                onError(e);
+            }
+        }
+
+        @Override
+        public void onTokenRefreshed(@NonNull TokenPair tokenPair) {
+            if (!completed.compareAndSet(false, true)) return;
+
+            try {
+                store.storeTokens(key.account, key.authTokenType, tokenPair);
+            } catch (Exception e) {
+                returnError(mapError(e));
+                return;
+            }
+            refreshedTokens.put(
+                    key, new RefreshedToken(tokenPair.accessToken, clock.currentTimeMillis()));
+            final long now = clock.elapsedMillis();
+            refreshBackoff.onRefreshed(key.account, null, now);
+            final int waiters =
+                    activeLookups.complete(key, (l) -> l.onAccessToken(tokenPair.accessToken));
+            metrics.onRefreshSucceeded(now - startedAt, waiters);
+            history.record(
+                    key,
+                    clock.currentTimeMillis(),
+                    now - startedAt,
+                    waiters,
+                    RefreshHistory.SUCCESS,
+                    false);
+            if (logger.isLoggable()) {
+                logger.log(
+                        "Refreshed "
+                                + key
+                                + " in "
+                                + (now - startedAt)
+                                + "ms: "
+                                + AuthLogger.redact(tokenPair.accessToken));
+            }
+        }
+
+        @Override
+        public void onError(@NonNull Throwable error) {
+            if (!completed.compareAndSet(false, true)) return;
+
+            returnError(mapError(error));
+        }
+
+        private void returnError(@NonNull TokenRefreshError error) {
+            final long now = clock.elapsedMillis();
+            refreshBackoff.onRefreshed(key.account, error, now);
+            final int waiters = activeLookups.complete(key, (l) -> l.onError(error));
+            metrics.onRefreshFailed(error.getCode(), now - startedAt, waiters);
+            history.record(
+                    key,
+                    clock.currentTimeMillis(),
+                    now - startedAt,
+                    waiters,
+                    error.getCode(),
+                    false);
+            if (logger.isLoggable()) {
+                logger.log(
+                        "Refresh for "
+                                + key
+                                + " failed with "
+                                + error.getCode()
+                                + ": "
+                                + error.getErrorMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * A bounded ring buffer of the most recent token refreshes, to print them for diagnostics.
+ *
+ * <p>Events get written into preallocated arrays, so recording one doesn't allocate and is cheap
+ * enough to always keep it enabled. Older events get overwritten.
+ */
+final class RefreshHistory {
+
+    static final int CAPACITY = 32;
+
+    /** The outcome of a refresh that succeeded. */
+    static final int SUCCESS = 0;
+
+    private final Object[] keys = new Object[CAPACITY];
+    private final long[] times = new long[CAPACITY];
+    private final long[] durations = new long[CAPACITY];
+    private final int[] waiters = new int[CAPACITY];
+    private final int[] errorCodes = new int[CAPACITY];
+    private final boolean[] rejected = new boolean[CAPACITY];
+
+    private long count;
+
+    /**
+     * Record a refresh.
+     *
+     * @param key the account and token type that got refreshed
+     * @param time the time of the refresh in milliseconds since the epoch
+     * @param durationMillis how long the refresh took
+     * @param waiters the number of callers that received the result
+     * @param errorCode the {@link TokenRefreshError#getCode() error code}, or {@link #SUCCESS}
+     * @param rejected true if the refresh was not attempted because refreshes were on hold
+     */
+    synchronized void record(
+            @NonNull Object key,
+            long time,
+            long durationMillis,
+            int waiters,
+            int errorCode,
+            boolean rejected) {
+        final int index = (int) (count++ % CAPACITY);
+        keys[index] = key;
+        times[index] = time;
+        durations[index] = durationMillis;
+        this.waiters[index] = waiters;
+        errorCodes[index] = errorCode;
+        this.rejected[index] = rejected;
+    }
+
+    /** Print the recorded refreshes, newest first. */
+    synchronized void dump(@NonNull PrintWriter writer, @NonNull String prefix) {
+        if (count == 0) {
+            writer.println(prefix + "none");
+            return;
+        }
+        final SimpleDateFormat format =
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        final long oldest = Math.max(0, count - CAPACITY);
+        for (long i = count - 1; i >= oldest; i--) {
+            final int index = (int) (i % CAPACITY);
+            final String outcome;
+            if (rejected[index]) {
+                outcome = "on hold after error " + errorCodes[index];
+            } else if (errorCodes[index] == SUCCESS) {
+                outcome = "refreshed in " + durations[index] + "ms";
+            } else {
+                outcome = "failed with " + errorCodes[index] + " in " + durations[index] + "ms";
+            }
+            writer.println(
+                    prefix
+                            + format.format(new Date(times[index]))
+                            + " "
+                            + keys[index]
+                            + ": "
+                            + outcome
+                            + " for "
+                            + waiters[index]
+                            + " waiters");
+        }
+    }
+}
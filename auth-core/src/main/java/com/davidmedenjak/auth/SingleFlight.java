@@ -0,0 +1,159 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Coalesces concurrent operations for the same key into a single one.
+ *
+ * <p>The first caller for a key starts a <i>flight</i> and is responsible to {@link
+ * #complete(Object, ResultCallback) complete} it. Every other caller gets queued as a waiter and
+ * receives the result of the running flight. Flights for different keys are fully independent and
+ * no locks are held at any time: waiters are kept in a lock-free list that gets detached once on
+ * completion.
+ *
+ * @param <K> the key to group operations by
+ * @param <W> the waiters to notify once the operation completes
+ */
+public final class SingleFlight<K, W> {
+
+    private final ConcurrentHashMap<K, Flight<W>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Start a new flight for {@code key} or join the running one.
+     *
+     * @param key the key of the operation
+     * @param waiter the waiter to queue if the operation is already running
+     * @return true if a new flight was started, in which case the caller has to complete it and
+     *     {@code waiter} was <i>not</i> queued, false if {@code waiter} will receive the result of
+     *     the running flight
+     */
+    public boolean startOrJoin(@NonNull K key, @NonNull W waiter) {
+        for (; ; ) {
+            Flight<W> running = flights.get(key);
+            if (running == null) {
+                final Flight<W> flight = new Flight<>();
+                running = flights.putIfAbsent(key, flight);
+                if (running == null) {
+                    return true;
+                }
+            }
+            if (running.add(waiter)) {
+                return false;
+            }
+            // the flight just completed and is no longer in the map, try again
+        }
+    }
+
+    /**
+     * Queue a waiter with the flight started by the caller.
+     *
+     * @param key the key of the running operation
+     * @param waiter the waiter to notify on completion
+     */
+    public void join(@NonNull K key, @NonNull W waiter) {
+        final Flight<W> flight = flights.get(key);
+        if (flight == null || !flight.add(waiter)) {
+            throw new IllegalStateException("No flight running for " + key);
+        }
+    }
+
+    /**
+     * Complete the flight for {@code key} and notify all of its waiters in the order they were
+     * queued. Callers arriving after this will start a new flight.
+     *
+     * @param key the key of the running operation
+     * @param callback the action to run for every waiter
+     * @return the number of waiters notified
+     */
+    public int complete(@NonNull K key, @NonNull ResultCallback<W> callback) {
+        final Flight<W> flight = flights.remove(key);
+        if (flight == null) {
+            return 0;
+        }
+        int count = 0;
+        for (Node<W> node = flight.close(); node != null; node = node.next) {
+            callback.returnResult(node.waiter);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Get the running flights, e.g. for diagnostics.
+     *
+     * @return a snapshot of the number of waiters queued with each running flight
+     */
+    @NonNull
+    public Map<K, Integer> getWaiterCounts() {
+        final Map<K, Integer> counts = new HashMap<>();
+        for (Map.Entry<K, Flight<W>> entry : flights.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().count.get());
+        }
+        return counts;
+    }
+
+    /**
+     * Action to run for every waiter of a completed flight.
+     *
+     * @param <W> the type of the waiters
+     */
+    public interface ResultCallback<W> {
+        void returnResult(W waiter);
+    }
+
+    private static final class Flight<W> {
+
+        /** Marks a completed flight that no longer accepts waiters. */
+        @SuppressWarnings("rawtypes")
+        private static final Node CLOSED = new Node<>(null);
+
+        private final AtomicReference<Node<W>> waiters = new AtomicReference<>();
+        private final AtomicInteger count = new AtomicInteger();
+
+        @SuppressWarnings("unchecked")
+        private boolean add(W waiter) {
+            final Node<W> node = new Node<>(waiter);
+            for (; ; ) {
+                final Node<W> head = waiters.get();
+                if (head == CLOSED) {
+                    return false;
+                }
+                node.next = head;
+                if (waiters.compareAndSet(head, node)) {
+                    count.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+
+        /** @return the waiters in the order they were added */
+        @SuppressWarnings("unchecked")
+        private Node<W> close() {
+            Node<W> node = waiters.getAndSet(CLOSED);
+            // reverse the stack so that waiters get notified first come, first served
+            Node<W> reversed = null;
+            while (node != null) {
+                final Node<W> next = node.next;
+                node.next = reversed;
+                reversed = node;
+                node = next;
+            }
+            return reversed;
+        }
+    }
+
+    private static final class Node<W> {
+        private final W waiter;
+        private Node<W> next;
+
+        private Node(W waiter) {
+            this.waiter = waiter;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Helpers to persist the expiry of access tokens with the users {@code android.accounts.Account}
+ * and to decide whether they should be refreshed.
+ *
+ * <p>The expiry gets stored as user data next to the token, so that both {@code
+ * OAuthAuthenticator} and {@code OAuthAccountManager} can read it.
+ */
+public final class TokenExpiry {
+
+    /**
+     * Default time before the actual expiry at which tokens get refreshed. This also covers some
+     * clock skew between the device and the server.
+     */
+    public static final long DEFAULT_REFRESH_WINDOW_MILLIS = 60_000L;
+
+    private static final String KEY_EXPIRES_AT = "com.davidmedenjak.auth.expires_at.";
+
+    private TokenExpiry() {}
+
+    /**
+     * The user data key used to store the expiry of the access token.
+     *
+     * @param authTokenType the type of the token
+     * @return the key to use with {@code AccountManager#getUserData} and {@code
+     *     AccountManager#setUserData}
+     */
+    @NonNull
+    public static String userDataKey(@NonNull String authTokenType) {
+        return KEY_EXPIRES_AT + authTokenType;
+    }
+
+    /**
+     * Format an expiry to be stored as user data.
+     *
+     * @param expiresAt the expiry from {@link TokenPair#expiresAt}
+     * @return the formatted value, or {@code null} if the expiry is unknown
+     */
+    @Nullable
+    public static String format(long expiresAt) {
+        return expiresAt == TokenPair.NO_EXPIRY ? null : String.valueOf(expiresAt);
+    }
+
+    /**
+     * Parse an expiry previously formatted with {@link #format(long)}.
+     *
+     * @param value the stored value
+     * @return the expiry, or {@link TokenPair#NO_EXPIRY} if none or an invalid value is stored
+     */
+    public static long parse(@Nullable String value) {
+        if (value == null || value.isEmpty()) {
+            return TokenPair.NO_EXPIRY;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return TokenPair.NO_EXPIRY;
+        }
+    }
+
+    /**
+     * Check whether a token should be refreshed.
+     *
+     * @param expiresAt the expiry of the token, or {@link TokenPair#NO_EXPIRY}
+     * @param now the current time in milliseconds since the epoch
+     * @param refreshWindowMillis how long before the expiry the token should get refreshed
+     * @return true if the token expires within the refresh window, false if it is still valid or
+     *     its expiry is unknown
+     */
+    public static boolean isExpiring(long expiresAt, long now, long refreshWindowMillis) {
+        return expiresAt != TokenPair.NO_EXPIRY && now + refreshWindowMillis >= expiresAt;
+    }
+
+    /**
+     * Check whether a token should be refreshed, refreshing short-lived tokens after at most half
+     * of their lifetime. Otherwise a token that is valid for less than the refresh window would
+     * be expiring right away and get refreshed with every lookup.
+     *
+     * @param expiresAt the expiry of the token, or {@link TokenPair#NO_EXPIRY}
+     * @param obtainedAt when the token was obtained in milliseconds since the epoch, or {@link
+     *     TokenPair#NO_EXPIRY} if unknown, in which case the full refresh window applies
+     * @param now the current time in milliseconds since the epoch
+     * @param refreshWindowMillis how long before the expiry the token should get refreshed
+     * @return true if the token expires within the refresh window, false if it is still valid or
+     *     its expiry is unknown
+     */
+    public static boolean isExpiring(
+            long expiresAt, long obtainedAt, long now, long refreshWindowMillis) {
+        if (obtainedAt != TokenPair.NO_EXPIRY && obtainedAt < expiresAt) {
+            refreshWindowMillis = Math.min(refreshWindowMillis, (expiresAt - obtainedAt) / 2);
+        }
+        return isExpiring(expiresAt, now, refreshWindowMillis);
+    }
+}
@@ -0,0 +1,38 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Identifies the access token of a specific type for an account.
+ *
+ * @param <A> the type of the accounts
+ */
+final class TokenKey<A> {
+
+    @NonNull final A account;
+    @NonNull final String authTokenType;
+
+    TokenKey(@NonNull A account, @NonNull String authTokenType) {
+        this.account = account;
+        this.authTokenType = authTokenType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TokenKey)) return false;
+
+        final TokenKey<?> other = (TokenKey<?>) o;
+        return account.equals(other.account) && authTokenType.equals(other.authTokenType);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * account.hashCode() + authTokenType.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return account + " as " + authTokenType;
+    }
+}
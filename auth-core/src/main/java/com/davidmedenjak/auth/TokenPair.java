@@ -0,0 +1,86 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+
+/** Login credentials for the user. */
+@SuppressWarnings("WeakerAccess")
+public class TokenPair {
+
+    /** Value of {@link #expiresAt} if the expiry of the access token is not known. */
+    public static final long NO_EXPIRY = 0L;
+
+    @NonNull public final String accessToken;
+    @NonNull public final String refreshToken;
+
+    /**
+     * The time in milliseconds since the epoch at which the access token expires, or {@link
+     * #NO_EXPIRY} if unknown.
+     */
+    public final long expiresAt;
+
+    /**
+     * Create new credentials for the user.
+     *
+     * @param accessToken used to authenticate the user with the backend
+     * @param refreshToken credentials to refresh the access token once it becomes invalidated
+     */
+    public TokenPair(@NonNull String accessToken, @NonNull String refreshToken) {
+        this(accessToken, refreshToken, NO_EXPIRY);
+    }
+
+    /**
+     * Create new credentials for the user with a known expiry. Tokens will be refreshed
+     * proactively shortly before they expire.
+     *
+     * @param accessToken used to authenticate the user with the backend
+     * @param refreshToken credentials to refresh the access token once it becomes invalidated
+     * @param expiresAt the time in milliseconds since the epoch at which the access token
+     *     expires, or {@link #NO_EXPIRY}
+     * @see #withExpiresIn(String, String, long)
+     */
+    public TokenPair(@NonNull String accessToken, @NonNull String refreshToken, long expiresAt) {
+        this.accessToken = accessToken;
+        this.refreshToken = refreshToken;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Create new credentials from an OAuth {@code expires_in} response.
+     *
+     * @param accessToken used to authenticate the user with the backend
+     * @param refreshToken credentials to refresh the access token once it becomes invalidated
+     * @param expiresInSeconds the lifetime of the access token in seconds, as returned by the
+     *     {@code expires_in} field of the token response
+     * @return the new TokenPair
+     * @see #withExpiresIn(String, String, long, Clock)
+     */
+    @NonNull
+    public static TokenPair withExpiresIn(
+            @NonNull String accessToken, @NonNull String refreshToken, long expiresInSeconds) {
+        return withExpiresIn(accessToken, refreshToken, expiresInSeconds, Clock.SYSTEM);
+    }
+
+    /**
+     * Create new credentials from an OAuth {@code expires_in} response, relative to the current
+     * time of {@code clock}. Use the same clock that checks the expiry of the tokens.
+     *
+     * @param accessToken used to authenticate the user with the backend
+     * @param refreshToken credentials to refresh the access token once it becomes invalidated
+     * @param expiresInSeconds the lifetime of the access token in seconds, as returned by the
+     *     {@code expires_in} field of the token response
+     * @param clock the time source the lifetime is relative to
+     * @return the new TokenPair
+     */
+    @NonNull
+    public static TokenPair withExpiresIn(
+            @NonNull String accessToken,
+            @NonNull String refreshToken,
+            long expiresInSeconds,
+            @NonNull Clock clock) {
+        if (expiresInSeconds <= 0) {
+            return new TokenPair(accessToken, refreshToken);
+        }
+        final long expiresAt = clock.currentTimeMillis() + expiresInSeconds * 1000;
+        return new TokenPair(accessToken, refreshToken, expiresAt);
+    }
+}
@@ -0,0 +1,84 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Error to report failure when trying to refresh a token. We are limited by {@code AccountManager}
+ * to return an error code and errorMessage only.
+ *
+ * <p>The error codes match the ones of {@code android.accounts.AccountManager}, so they can be used
+ * interchangeably.
+ *
+ * @see #TokenRefreshError(int, String)
+ */
+public class TokenRefreshError extends Exception {
+
+    public static final int ERROR_CODE_REMOTE_EXCEPTION = 1;
+    public static final int ERROR_CODE_NETWORK_ERROR = 3;
+    public static final int ERROR_CODE_CANCELED = 4;
+    public static final int ERROR_CODE_INVALID_RESPONSE = 5;
+    public static final int ERROR_CODE_UNSUPPORTED_OPERATION = 6;
+    public static final int ERROR_CODE_BAD_ARGUMENTS = 7;
+    public static final int ERROR_CODE_BAD_REQUEST = 8;
+    public static final int ERROR_CODE_BAD_AUTHENTICATION = 9;
+
+    public static final TokenRefreshError NETWORK =
+            new TokenRefreshError(ERROR_CODE_NETWORK_ERROR, null);
+
+    private final int code;
+    private final String errorMessage;
+    private final long retryAfterMillis;
+
+    /**
+     * Construct a new error using an error code and message to return as a result from the token
+     * refresh operation.
+     *
+     * @param code the error code. May be one of the predefined error codes
+     *     <ul>
+     *       <li>{@link #ERROR_CODE_REMOTE_EXCEPTION},
+     *       <li>{@link #ERROR_CODE_NETWORK_ERROR},
+     *       <li>{@link #ERROR_CODE_CANCELED},
+     *       <li>{@link #ERROR_CODE_INVALID_RESPONSE},
+     *       <li>{@link #ERROR_CODE_UNSUPPORTED_OPERATION},
+     *       <li>{@link #ERROR_CODE_BAD_ARGUMENTS},
+     *       <li>{@link #ERROR_CODE_BAD_REQUEST},
+     *       <li>{@link #ERROR_CODE_BAD_AUTHENTICATION}
+     *     </ul>
+     *
+     * @param errorMessage an optional errorMessage
+     */
+    public TokenRefreshError(int code, @Nullable String errorMessage) {
+        this(code, errorMessage, 0L);
+    }
+
+    /**
+     * Construct a new error with a hint on when to try again, e.g. from a {@code Retry-After}
+     * header.
+     *
+     * <p>After a {@link #ERROR_CODE_NETWORK_ERROR network error} token refreshes get paused for a
+     * while, at least for {@code retryAfterMillis}.
+     *
+     * @param code the error code, see {@link #TokenRefreshError(int, String)}
+     * @param errorMessage an optional errorMessage
+     * @param retryAfterMillis the time in milliseconds to wait before refreshing the token again,
+     *     or 0 if unknown
+     */
+    public TokenRefreshError(int code, @Nullable String errorMessage, long retryAfterMillis) {
+        this.code = code;
+        this.errorMessage = errorMessage;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /** @return the time in milliseconds to wait before trying again, or 0 if unknown */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,37 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+
+/** Trades a refresh token for new tokens. */
+public interface TokenRefresher {
+
+    /**
+     * Re-authenticate the user with the previously stored refresh token. This method should
+     * return immediately and report the result to {@code callback} exactly once, from any thread.
+     *
+     * @param refreshToken the refresh token stored from {@link TokenPair#refreshToken} at the time
+     *     of the last login or refresh
+     * @param callback the callback to report the new TokenPair or an error to
+     */
+    void authenticate(@NonNull String refreshToken, @NonNull TokenCallback callback);
+
+    /** Receives the result of {@link #authenticate(String, TokenCallback)}. */
+    interface TokenCallback {
+
+        /**
+         * Report the new tokens.
+         *
+         * @param tokenPair the new TokenPair to use for future authentication
+         */
+        void onTokenRefreshed(@NonNull TokenPair tokenPair);
+
+        /**
+         * Report an error while refreshing the token. A {@link TokenRefreshError} will be passed
+         * on to the listeners, an {@link java.io.IOException} defaults to {@link
+         * TokenRefreshError#NETWORK}.
+         *
+         * @param error the error
+         */
+        void onError(@NonNull Throwable error);
+    }
+}
@@ -0,0 +1,38 @@
+package com.davidmedenjak.auth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CountingAuthMetricsTest {
+
+    private final CountingAuthMetrics metrics = new CountingAuthMetrics();
+
+    @Test
+    public void percentilesWithinBucket() {
+        for (int i = 1; i <= 100; i++) {
+            metrics.onRefreshSucceeded(i, 1);
+        }
+
+        CountingAuthMetrics.Histogram refreshMillis = metrics.getRefreshMillis();
+        assertEquals(100, refreshMillis.getCount());
+        assertEquals(5050, refreshMillis.getSum());
+        assertEquals(63, refreshMillis.getPercentile(0.5));
+        assertEquals(100, refreshMillis.getPercentile(0.99));
+        assertEquals(0, new CountingAuthMetrics().getRefreshMillis().getPercentile(0.5));
+    }
+
+    @Test
+    public void errorsCountedByCode() {
+        metrics.onRefreshFailed(TokenRefreshError.ERROR_CODE_BAD_AUTHENTICATION, 10, 1);
+        metrics.onRefreshRejected(TokenRefreshError.ERROR_CODE_NETWORK_ERROR, 3);
+        metrics.onRefreshFailed(42, 10, 1);
+        metrics.onRefreshFailed(-1, 10, 1);
+
+        assertEquals(1, metrics.getErrorCount(TokenRefreshError.ERROR_CODE_BAD_AUTHENTICATION));
+        assertEquals(1, metrics.getErrorCount(TokenRefreshError.ERROR_CODE_NETWORK_ERROR));
+        assertEquals(2, metrics.getErrorCount(42));
+        assertEquals(3, metrics.getFailedRefreshCount());
+        assertEquals(1, metrics.getRejectedRefreshCount());
+    }
+}
@@ -0,0 +1,332 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshCoordinatorTest {
+
+    private static final String account = "account";
+    private static final String tokenType = "bearer";
+
+    private FakeStore store;
+    private FakeClock clock;
+    private List<TokenRefresher.TokenCallback> refreshes;
+    private List<String> refreshTokens;
+    private RefreshCoordinator<String> coordinator;
+
+    @Before
+    public void setUp() {
+        store = new FakeStore();
+        clock = new FakeClock();
+        refreshes = new ArrayList<>();
+        refreshTokens = new ArrayList<>();
+        coordinator =
+                new RefreshCoordinator<>(
+                        store,
+                        (refreshToken, callback) -> {
+                            refreshTokens.add(refreshToken);
+                            refreshes.add(callback);
+                        },
+                        clock);
+    }
+
+    @Test
+    public void storedTokenReturnedImmediately() {
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+        RecordingListener listener = new RecordingListener();
+
+        String accessToken = coordinator.getAccessToken(account, tokenType, listener);
+
+        assertEquals("access1", accessToken);
+        assertTrue(refreshes.isEmpty());
+        assertTrue(listener.accessTokens.isEmpty());
+    }
+
+    @Test
+    public void concurrentLookupsShareRefresh() {
+        store.refreshToken = "refresh1";
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+
+        assertNull(coordinator.getAccessToken(account, tokenType, first));
+        assertNull(coordinator.getAccessToken(account, tokenType, second));
+        refreshes.get(0).onTokenRefreshed(new TokenPair("access2", "refresh2"));
+
+        assertEquals(1, refreshes.size());
+        assertEquals("refresh1", refreshTokens.get(0));
+        assertEquals("access2", first.accessTokens.get(0));
+        assertEquals("access2", second.accessTokens.get(0));
+        assertEquals("refresh2", store.refreshToken);
+    }
+
+    @Test
+    public void expiringTokenRefreshed() {
+        store.storeTokens(
+                account, tokenType, new TokenPair("access1", "refresh1", clock.now + 1000));
+
+        assertNull(coordinator.getAccessToken(account, tokenType, new RecordingListener()));
+
+        assertEquals(1, refreshes.size());
+    }
+
+    @Test
+    public void expiresInRelativeToClock() {
+        TokenPair tokens = TokenPair.withExpiresIn("access1", "refresh1", 1, clock);
+        store.storeTokens(account, tokenType, tokens);
+
+        assertEquals(clock.now + 1000, store.getExpiresAt(account, tokenType));
+        assertNull(coordinator.getAccessToken(account, tokenType, new RecordingListener()));
+        assertEquals(1, refreshes.size());
+    }
+
+    @Test
+    public void shortLivedTokenRefreshedAfterHalfItsLifetime() {
+        store.refreshToken = "refresh1";
+        coordinator.getAccessToken(account, tokenType, new RecordingListener());
+        TokenPair tokens = TokenPair.withExpiresIn("access2", "refresh2", 30, clock);
+        refreshes.get(0).onTokenRefreshed(tokens);
+
+        clock.now += 14_000;
+        RecordingListener listener = new RecordingListener();
+        assertEquals("access2", coordinator.getAccessToken(account, tokenType, listener));
+        clock.now += 2_000;
+        assertNull(coordinator.getAccessToken(account, tokenType, new RecordingListener()));
+
+        assertEquals(2, refreshes.size());
+    }
+
+    @Test
+    public void errorsMapped() {
+        store.refreshToken = "refresh1";
+        RecordingListener listener = new RecordingListener();
+
+        coordinator.getAccessToken(account, tokenType, listener);
+        refreshes.get(0).onError(new IOException());
+
+        assertSame(TokenRefreshError.NETWORK, listener.errors.get(0));
+    }
+
+    @Test
+    public void failingStoreCompletesLookup() {
+        store.failure = new IllegalStateException("store closed");
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+
+        assertNull(coordinator.getAccessToken(account, tokenType, first));
+        store.failure = null;
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+
+        assertEquals("access1", coordinator.getAccessToken(account, tokenType, second));
+        assertEquals("store closed", first.errors.get(0).getErrorMessage());
+        assertTrue(refreshes.isEmpty());
+    }
+
+    @Test
+    public void missingRefreshTokenCancels() {
+        RecordingListener listener = new RecordingListener();
+
+        coordinator.getAccessToken(account, tokenType, listener);
+
+        assertEquals(TokenRefreshError.ERROR_CODE_CANCELED, listener.errors.get(0).getCode());
+        assertTrue(refreshes.isEmpty());
+    }
+
+    @Test
+    public void networkErrorPausesRefreshes() {
+        store.refreshToken = "refresh1";
+        RecordingListener listener = new RecordingListener();
+
+        coordinator.getAccessToken(account, tokenType, new RecordingListener());
+        refreshes.get(0).onError(new IOException());
+        coordinator.getAccessToken(account, tokenType, listener);
+
+        assertEquals(1, refreshes.size());
+        assertSame(TokenRefreshError.NETWORK, listener.errors.get(0));
+
+        clock.elapsed += RefreshBackoff.INITIAL_BACKOFF_MILLIS;
+        coordinator.getAccessToken(account, tokenType, listener);
+
+        assertEquals(2, refreshes.size());
+    }
+
+    @Test
+    public void metricsReported() {
+        CountingAuthMetrics metrics = new CountingAuthMetrics();
+        coordinator.setMetrics(metrics);
+        store.refreshToken = "refresh1";
+
+        coordinator.getAccessToken(account, tokenType, new RecordingListener());
+        coordinator.getAccessToken(account, tokenType, new RecordingListener());
+        clock.elapsed += 250;
+        refreshes.get(0).onTokenRefreshed(new TokenPair("access2", "refresh2"));
+        coordinator.getAccessToken(account, tokenType, new RecordingListener());
+
+        assertEquals(1, metrics.getLookupHits());
+        assertEquals(1, metrics.getLookupMisses());
+        assertEquals(1, metrics.getRefreshCount());
+        assertEquals(250, metrics.getRefreshMillis().getMax());
+        assertEquals(2, metrics.getWaiters().getMax());
+    }
+
+    @Test
+    public void errorMetricsReported() {
+        CountingAuthMetrics metrics = new CountingAuthMetrics();
+        coordinator.setMetrics(metrics);
+        store.refreshToken = "refresh1";
+
+        coordinator.getAccessToken(account, tokenType, new RecordingListener());
+        refreshes.get(0).onError(new IOException());
+        coordinator.getAccessToken(account, tokenType, new RecordingListener());
+
+        assertEquals(1, metrics.getFailedRefreshCount());
+        assertEquals(1, metrics.getRejectedRefreshCount());
+        assertEquals(2, metrics.getErrorCount(TokenRefreshError.ERROR_CODE_NETWORK_ERROR));
+    }
+
+    @Test
+    public void holdLogged() {
+        List<String> logs = new ArrayList<>();
+        coordinator.setLogger(
+                new AuthLogger() {
+                    @Override
+                    public boolean isLoggable() {
+                        return true;
+                    }
+
+                    @Override
+                    public void log(@NonNull String message) {
+                        logs.add(message);
+                    }
+                });
+        store.refreshToken = "refresh1";
+
+        coordinator.getAccessToken(account, tokenType, new RecordingListener());
+        refreshes.get(0).onError(new IOException());
+        coordinator.getAccessToken(account, tokenType, new RecordingListener());
+
+        assertEquals(2, logs.size());
+        assertTrue(logs.get(0), logs.get(0).startsWith("Refresh for account as bearer failed"));
+        assertEquals("Refresh for account as bearer on hold after error 3", logs.get(1));
+    }
+
+    @Test
+    public void dumpShowsState() {
+        store.refreshToken = "refresh1";
+        coordinator.getAccessToken(account, tokenType, new RecordingListener());
+        refreshes.get(0).onError(new IOException());
+        coordinator.getAccessToken(account, tokenType, new RecordingListener());
+        coordinator.getAccessToken("other", tokenType, new RecordingListener());
+        coordinator.getAccessToken("other", tokenType, new RecordingListener());
+
+        String dump = dump();
+
+        assertTrue(dump, dump.contains("other as bearer: 2 waiters"));
+        assertTrue(dump, dump.contains("account: 1 failures, last error 3, on hold for"));
+        assertTrue(dump, dump.contains("account as bearer: on hold after error 3 for 1 waiters"));
+        assertTrue(dump, dump.contains("account as bearer: failed with 3 in 0ms for 1 waiters"));
+    }
+
+    @Test
+    public void dumpKeepsLatestRefreshes() {
+        store.refreshToken = "refresh1";
+        for (int i = 0; i < RefreshHistory.CAPACITY + 5; i++) {
+            store.tokens.clear();
+            coordinator.getAccessToken(account, tokenType, new RecordingListener());
+            refreshes.get(i).onTokenRefreshed(new TokenPair("access" + i, "refresh1"));
+        }
+
+        String dump = dump();
+
+        int refreshed = dump.split("refreshed in").length - 1;
+        assertEquals(RefreshHistory.CAPACITY, refreshed);
+    }
+
+    private String dump() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        coordinator.dump(writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    private static class RecordingListener implements RefreshCoordinator.Listener {
+        private final List<String> accessTokens = new ArrayList<>();
+        private final List<TokenRefreshError> errors = new ArrayList<>();
+
+        @Override
+        public void onAccessToken(@NonNull String accessToken) {
+            accessTokens.add(accessToken);
+        }
+
+        @Override
+        public void onError(@NonNull TokenRefreshError error) {
+            errors.add(error);
+        }
+    }
+
+    private static class FakeClock implements Clock {
+        private long now = 1_000_000L;
+        private long elapsed;
+
+        @Override
+        public long currentTimeMillis() {
+            return now;
+        }
+
+        @Override
+        public long elapsedMillis() {
+            return elapsed;
+        }
+    }
+
+    private static class FakeStore implements RefreshCoordinator.Store<String> {
+        private String refreshToken;
+        private RuntimeException failure;
+        private final Map<String, TokenPair> tokens = new HashMap<>();
+
+        @Nullable
+        @Override
+        public String getRefreshToken(@NonNull String account) {
+            return refreshToken;
+        }
+
+        @Nullable
+        @Override
+        public String peekAccessToken(@NonNull String account, @NonNull String authTokenType) {
+            if (failure != null) throw failure;
+            final TokenPair tokenPair = tokens.get(authTokenType);
+            return tokenPair != null ? tokenPair.accessToken : null;
+        }
+
+        @Override
+        public long getExpiresAt(@NonNull String account, @NonNull String authTokenType) {
+            final TokenPair tokenPair = tokens.get(authTokenType);
+            return tokenPair != null ? tokenPair.expiresAt : TokenPair.NO_EXPIRY;
+        }
+
+        @Override
+        public void storeTokens(
+                @NonNull String account,
+                @NonNull String authTokenType,
+                @NonNull TokenPair tokenPair) {
+            refreshToken = tokenPair.refreshToken;
+            tokens.put(authTokenType, tokenPair);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.davidmedenjak.auth;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays hours of traffic against a {@link RefreshCoordinator} on a virtual clock. Requests and
+ * token endpoint responses are scheduled as events, so every run is deterministic and takes
+ * milliseconds.
+ *
+ * <p>Each scenario checks that tokens only get refreshed when they are expiring, that refreshes
+ * never overlap, and that every request gets an answer within the latency of the token endpoint.
+ */
+public class RefreshSimulationTest {
+
+    private static final String account = "account";
+    private static final String tokenType = "bearer";
+
+    private static final long SECOND = 1_000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+
+    private VirtualClock clock;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        clock = new VirtualClock();
+        random = new Random(42);
+    }
+
+    @Test
+    public void oneRefreshPerExpiry() {
+        Simulation simulation = new Simulation(30 * MINUTE, 500, 0);
+
+        simulation.run(8 * HOUR, 100);
+
+        long refreshInterval = 30 * MINUTE - TokenExpiry.DEFAULT_REFRESH_WINDOW_MILLIS;
+        assertTrue(simulation.refreshes <= 8 * HOUR / refreshInterval + 1);
+        assertEquals(0, simulation.errors);
+    }
+
+    @Test
+    public void flakyTokenEndpoint() {
+        Simulation simulation = new Simulation(5 * MINUTE, 500, 0.3);
+
+        simulation.run(4 * HOUR, 100);
+
+        assertTrue(simulation.failedRefreshes > 0);
+        assertTrue(simulation.errors > 0);
+    }
+
+    @Test
+    public void outageBacksOff() {
+        Simulation simulation = new Simulation(10 * MINUTE, 500, 0);
+        simulation.outageStart = HOUR;
+        simulation.outageEnd = HOUR + 30 * MINUTE;
+
+        simulation.run(3 * HOUR, 100);
+
+        // without the backoff every request during the outage would hit the token endpoint
+        assertTrue(simulation.failedRefreshes <= 20);
+        long recoveryMillis = simulation.recoveredAt - simulation.outageEnd;
+        assertTrue(recoveryMillis <= RefreshBackoff.MAX_BACKOFF_MILLIS);
+    }
+
+    /** Clients requesting tokens at random intervals and a token endpoint issuing them. */
+    private class Simulation implements TokenRefresher, RefreshCoordinator.Store<String> {
+
+        private final long tokenLifetimeMillis;
+        private final long tokenLatencyMillis;
+        private final double failureRate;
+        private final RefreshCoordinator<String> coordinator;
+
+        private long outageStart = -1;
+        private long outageEnd = -1;
+
+        private String refreshToken = "refresh";
+        private TokenPair tokens;
+
+        private int refreshing;
+        private int refreshes;
+        private int failedRefreshes;
+        private long recoveredAt = -1;
+        private int requests;
+        private int answered;
+        private int errors;
+
+        private Simulation(long tokenLifetimeMillis, long tokenLatencyMillis, double failureRate) {
+            this.tokenLifetimeMillis = tokenLifetimeMillis;
+            this.tokenLatencyMillis = tokenLatencyMillis;
+            this.failureRate = failureRate;
+            this.coordinator =
+                    new RefreshCoordinator<>(
+                            this, this, clock, new RefreshBackoff<>(new Random(7)));
+        }
+
+        /**
+         * Send requests for {@code durationMillis} and wait for all of them to be answered.
+         *
+         * @param durationMillis how long to send requests for
+         * @param meanIntervalMillis the average time between two requests
+         */
+        private void run(long durationMillis, long meanIntervalMillis) {
+            long start = System.nanoTime();
+            scheduleRequest(durationMillis, meanIntervalMillis);
+            clock.runAll();
+
+            assertEquals("unanswered requests", requests, answered);
+            assertEquals(0, refreshing);
+            assertTrue(requests > durationMillis / meanIntervalMillis / 2);
+            // hours of traffic replay in milliseconds, with plenty of headroom for slow machines
+            assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        }
+
+        private void scheduleRequest(long endMillis, long meanIntervalMillis) {
+            long interval = (long) (-Math.log(1 - random.nextDouble()) * meanIntervalMillis);
+            clock.schedule(
+                    interval,
+                    () -> {
+                        if (clock.now > endMillis) return;
+                        request();
+                        scheduleRequest(endMillis, meanIntervalMillis);
+                    });
+        }
+
+        private void request() {
+            requests++;
+            long requestedAt = clock.now;
+            RefreshCoordinator.Listener listener =
+                    new RefreshCoordinator.Listener() {
+                        @Override
+                        public void onAccessToken(@NonNull String accessToken) {
+                            answer(requestedAt);
+                        }
+
+                        @Override
+                        public void onError(@NonNull TokenRefreshError error) {
+                            errors++;
+                            answer(requestedAt);
+                        }
+                    };
+            if (coordinator.getAccessToken(account, tokenType, listener) != null) {
+                answer(requestedAt);
+            }
+        }
+
+        private void answer(long requestedAt) {
+            answered++;
+            assertTrue("request starved", clock.now - requestedAt <= tokenLatencyMillis);
+        }
+
+        @Override
+        public void authenticate(@NonNull String refreshToken, @NonNull TokenCallback callback) {
+            assertEquals("overlapping refreshes", 0, refreshing);
+            assertTrue(
+                    "refreshed a token that was still valid",
+                    tokens == null
+                            || TokenExpiry.isExpiring(
+                                    tokens.expiresAt,
+                                    clock.currentTimeMillis(),
+                                    coordinator.getRefreshWindowMillis()));
+            refreshing++;
+
+            clock.schedule(
+                    tokenLatencyMillis,
+                    () -> {
+                        refreshing--;
+                        boolean outage = clock.now >= outageStart && clock.now < outageEnd;
+                        if (outage || random.nextDouble() < failureRate) {
+                            failedRefreshes++;
+                            callback.onError(new IOException());
+                            return;
+                        }
+                        if (recoveredAt < 0 && clock.now >= outageEnd) {
+                            recoveredAt = clock.now;
+                        }
+                        refreshes++;
+                        callback.onTokenRefreshed(
+                                TokenPair.withExpiresIn(
+                                        "token-" + refreshes,
+                                        refreshToken,
+                                        tokenLifetimeMillis / 1000,
+                                        clock));
+                    });
+        }
+
+        @Nullable
+        @Override
+        public String getRefreshToken(@NonNull String account) {
+            return refreshToken;
+        }
+
+        @Nullable
+        @Override
+        public String peekAccessToken(@NonNull String account, @NonNull String authTokenType) {
+            return tokens != null ? tokens.accessToken : null;
+        }
+
+        @Override
+        public long getExpiresAt(@NonNull String account, @NonNull String authTokenType) {
+            return tokens != null ? tokens.expiresAt : TokenPair.NO_EXPIRY;
+        }
+
+        @Override
+        public void storeTokens(
+                @NonNull String account,
+                @NonNull String authTokenType,
+                @NonNull TokenPair tokenPair) {
+            refreshToken = tokenPair.refreshToken;
+            tokens = tokenPair;
+        }
+    }
+
+    /** A clock that only moves forward when the next scheduled event runs. */
+    private static class VirtualClock implements Clock {
+
+        private static final long EPOCH = 1_500_000_000_000L;
+
+        private final PriorityQueue<Event> events = new PriorityQueue<>();
+        private long now;
+        private long sequence;
+
+        private void schedule(long delayMillis, Runnable action) {
+            events.add(new Event(now + delayMillis, sequence++, action));
+        }
+
+        private void runAll() {
+            Event event;
+            while ((event = events.poll()) != null) {
+                now = event.time;
+                event.action.run();
+            }
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return EPOCH + now;
+        }
+
+        @Override
+        public long elapsedMillis() {
+            return now;
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        private final long time;
+        private final long sequence;
+        private final Runnable action;
+
+        private Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(@NonNull Event other) {
+            if (time != other.time) {
+                return Long.compare(time, other.time);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
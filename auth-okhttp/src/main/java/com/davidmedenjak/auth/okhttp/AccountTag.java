@@ -0,0 +1,79 @@
+package com.davidmedenjak.auth.okhttp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davidmedenjak.auth.AccountAuthenticator;
+import com.davidmedenjak.auth.AccountAuthenticatorProvider;
+
+import java.io.IOException;
+
+import okhttp3.Request;
+
+/**
+ * Request tag that selects the account to send a request as. {@link RequestAuthInterceptor} and
+ * {@link RequestRetryAuthenticator} get its tokens from their {@link AccountAuthenticatorProvider}.
+ *
+ * <pre>{@code
+ * Request request = new Request.Builder()
+ *         .url(url)
+ *         .tag(AccountTag.class, AccountTag.of("alice"))
+ *         .build();
+ * }</pre>
+ *
+ * <p>Requests tagged with an account that doesn't exist fail with an {@link IOException}.
+ */
+public final class AccountTag {
+
+    @NonNull private final String accountName;
+
+    private AccountTag(@NonNull String accountName) {
+        this.accountName = accountName;
+    }
+
+    /**
+     * @param accountName the name of the account to send the request as
+     * @return the tag to set with {@code Request.Builder#tag(Class, Object)}
+     */
+    @NonNull
+    public static AccountTag of(@NonNull String accountName) {
+        return new AccountTag(accountName);
+    }
+
+    @NonNull
+    public String getAccountName() {
+        return accountName;
+    }
+
+    /**
+     * @param request the request
+     * @return the name of the account selected for {@code request}, or {@code null} if none was
+     */
+    @Nullable
+    static String accountName(@NonNull Request request) {
+        final AccountTag tag = request.tag(AccountTag.class);
+        return tag != null ? tag.accountName : null;
+    }
+
+    /**
+     * @param accounts the provider of the accounts
+     * @param accountName the name of the account selected for a request
+     * @return the authenticator of the account
+     * @throws IOException if there is no such account, so that the request fails
+     */
+    @NonNull
+    static AccountAuthenticator authenticator(
+            @NonNull AccountAuthenticatorProvider accounts, @NonNull String accountName)
+            throws IOException {
+        try {
+            return accounts.getAuthenticator(accountName);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown account " + accountName, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AccountTag{" + accountName + '}';
+    }
+}
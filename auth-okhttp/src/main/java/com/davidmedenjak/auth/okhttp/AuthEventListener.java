@@ -0,0 +1,169 @@
+package com.davidmedenjak.auth.okhttp;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+
+/**
+ * An OkHttp {@link EventListener} that reports how much time each call spent getting an access
+ * token in {@link RequestAuthInterceptor} and {@link RequestRetryAuthenticator}, whether it had to
+ * wait for a token refresh, and how often it was retried with a new token.
+ *
+ * <p>Calls are reported by host and path template, so that they can be aggregated per endpoint.
+ * Only calls that were sent with an access token get reported.
+ *
+ * <pre>{@code
+ * OkHttpClient client = new OkHttpClient.Builder()
+ *         .addInterceptor(new RequestAuthInterceptor(authenticator, gate))
+ *         .authenticator(new RequestRetryAuthenticator(authenticator, gate))
+ *         .eventListenerFactory(AuthEventListener.factory(reporter))
+ *         .build();
+ * }</pre>
+ */
+public final class AuthEventListener extends EventListener {
+
+    private final Reporter reporter;
+    private final PathTemplate pathTemplate;
+
+    private AuthorizationTag lastTag;
+    private long tokenNanos;
+    private boolean awaitedRefresh;
+    private int retries;
+
+    private AuthEventListener(@NonNull Reporter reporter, @NonNull PathTemplate pathTemplate) {
+        this.reporter = reporter;
+        this.pathTemplate = pathTemplate;
+    }
+
+    /**
+     * Create a factory for listeners that report to {@code reporter}, with paths grouped by {@link
+     * PathTemplate#IDS}.
+     *
+     * @param reporter receives the measurements of every call
+     * @return the factory to set with {@code OkHttpClient.Builder#eventListenerFactory}
+     */
+    @NonNull
+    public static EventListener.Factory factory(@NonNull Reporter reporter) {
+        return factory(reporter, PathTemplate.IDS);
+    }
+
+    /**
+     * Create a factory for listeners that report to {@code reporter}.
+     *
+     * @param reporter receives the measurements of every call
+     * @param pathTemplate groups the paths of calls to the same endpoint
+     * @return the factory to set with {@code OkHttpClient.Builder#eventListenerFactory}
+     */
+    @NonNull
+    public static EventListener.Factory factory(
+            @NonNull Reporter reporter, @NonNull PathTemplate pathTemplate) {
+        return call -> new AuthEventListener(reporter, pathTemplate);
+    }
+
+    @Override
+    public void requestHeadersEnd(@NonNull Call call, @NonNull Request request) {
+        final AuthorizationTag tag = request.tag(AuthorizationTag.class);
+        if (tag == null || tag == lastTag) {
+            // not authenticated, or the same request sent again on a new connection
+            return;
+        }
+        lastTag = tag;
+        tokenNanos += tag.tokenNanos;
+        awaitedRefresh |= tag.awaitedRefresh;
+        if (tag.retry) {
+            retries++;
+        }
+    }
+
+    @Override
+    public void callEnd(@NonNull Call call) {
+        report(call, false);
+    }
+
+    @Override
+    public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+        report(call, true);
+    }
+
+    private void report(@NonNull Call call, boolean failed) {
+        if (lastTag == null) {
+            return;
+        }
+        final HttpUrl url = call.request().url();
+        reporter.onAuthenticatedCall(
+                url.host(),
+                pathTemplate.template(url),
+                tokenNanos,
+                awaitedRefresh,
+                retries,
+                failed);
+    }
+
+    /** Receives the measurements of authenticated calls. Called on the thread of the call. */
+    public interface Reporter {
+
+        /**
+         * @param host the host of the call
+         * @param pathTemplate the path of the call, see {@link PathTemplate}
+         * @param tokenNanos the time spent getting access tokens, including retries
+         * @param awaitedRefresh whether the call had to wait for a token refresh
+         * @param retries how often the call was retried with a new token
+         * @param failed whether the call failed with an {@link IOException}
+         */
+        void onAuthenticatedCall(
+                @NonNull String host,
+                @NonNull String pathTemplate,
+                long tokenNanos,
+                boolean awaitedRefresh,
+                int retries,
+                boolean failed);
+    }
+
+    /** Groups the paths of calls to the same endpoint, e.g. {@code /users/{id}}. */
+    public interface PathTemplate {
+
+        /**
+         * Replaces path segments that are numbers, UUIDs, or long hex strings with {@code {id}}.
+         */
+        PathTemplate IDS = AuthEventListener::replaceIds;
+
+        @NonNull
+        String template(@NonNull HttpUrl url);
+    }
+
+    @NonNull
+    private static String replaceIds(@NonNull HttpUrl url) {
+        final List<String> segments = url.pathSegments();
+        final StringBuilder path = new StringBuilder();
+        for (String segment : segments) {
+            path.append('/').append(isId(segment) ? "{id}" : segment);
+        }
+        return path.toString();
+    }
+
+    private static boolean isId(@NonNull String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        boolean digitsOnly = true;
+        int hexDigits = 0;
+        for (int i = 0; i < segment.length(); i++) {
+            final char c = segment.charAt(i);
+            final boolean digit = c >= '0' && c <= '9';
+            final boolean hex = digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+            if (hex) {
+                hexDigits++;
+            } else if (c != '-') {
+                return false;
+            }
+            digitsOnly &= digit;
+        }
+        return digitsOnly || hexDigits >= 16;
+    }
+}
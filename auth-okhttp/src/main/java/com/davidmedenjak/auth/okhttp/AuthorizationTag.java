@@ -0,0 +1,54 @@
+package com.davidmedenjak.auth.okhttp;
+
+import androidx.annotation.NonNull;
+
+import okhttp3.Request;
+
+/**
+ * Request tag that records the access token {@link RequestAuthInterceptor} added to a request, so
+ * that {@link RequestRetryAuthenticator} doesn't have to parse it from the headers again.
+ *
+ * <p>It also records how long it took to get the token, which {@link AuthEventListener} reports.
+ */
+final class AuthorizationTag {
+
+    @NonNull final String accessToken;
+    /** How long it took to get {@link #accessToken}. */
+    final long tokenNanos;
+    /** Whether the request had to wait for the token to be refreshed. */
+    final boolean awaitedRefresh;
+    /** Whether this is a retry by {@link RequestRetryAuthenticator}. */
+    final boolean retry;
+
+    AuthorizationTag(@NonNull String accessToken) {
+        this(accessToken, 0, false, false);
+    }
+
+    AuthorizationTag(
+            @NonNull String accessToken, long tokenNanos, boolean awaitedRefresh, boolean retry) {
+        this.accessToken = accessToken;
+        this.tokenNanos = tokenNanos;
+        this.awaitedRefresh = awaitedRefresh;
+        this.retry = retry;
+    }
+
+    /**
+     * Get the access token used for {@code request}.
+     *
+     * @param request the request that was sent
+     * @return the access token, or an empty string if the request was sent without one
+     */
+    @NonNull
+    static String accessToken(@NonNull Request request) {
+        final AuthorizationTag tag = request.tag(AuthorizationTag.class);
+        if (tag != null) {
+            return tag.accessToken;
+        }
+
+        final String authorization = request.header(Headers.AUTHORIZATION);
+        if (authorization == null || !authorization.startsWith(Headers.AUTH_BEARER)) {
+            return "";
+        }
+        return authorization.substring(Headers.AUTH_BEARER.length());
+    }
+}
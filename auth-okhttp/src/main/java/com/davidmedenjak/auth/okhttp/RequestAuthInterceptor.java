@@ -1,8 +1,10 @@
 package com.davidmedenjak.auth.okhttp;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.davidmedenjak.auth.AccountAuthenticator;
+import com.davidmedenjak.auth.AccountAuthenticatorProvider;
 
 import java.io.IOException;
 
@@ -19,7 +21,11 @@ import okhttp3.Response;
  * <p>The token is retrieved from the supplied {@link AccountAuthenticator}.
  *
  * <p>This interceptor should be used together with {@link RequestRetryAuthenticator} to gracefully
- * retry HTTP 401 errors and refresh the token.
+ * retry HTTP 401 errors and refresh the token. Share a {@link TokenRefreshGate} between both to
+ * hold back new requests while the token gets refreshed.
+ *
+ * <p>With an {@link AccountAuthenticatorProvider} a single client can send requests as different
+ * accounts. Requests select their account with an {@link AccountTag}.
  *
  * @see RequestRetryAuthenticator
  * @see AccountAuthenticator
@@ -27,16 +33,60 @@ import okhttp3.Response;
 public class RequestAuthInterceptor implements Interceptor {
 
     private final AccountAuthenticator authenticator;
+    @Nullable private final AccountAuthenticatorProvider accounts;
+    private final TokenRefreshGate refreshGate;
 
     /** @param authenticator an authenticator to fetch new access tokens from */
     @Inject
     public RequestAuthInterceptor(AccountAuthenticator authenticator) {
+        this(authenticator, new TokenRefreshGate());
+    }
+
+    /**
+     * Create an interceptor that holds back requests while {@code refreshGate} is closed.
+     *
+     * @param authenticator an authenticator to fetch new access tokens from
+     * @param refreshGate the gate shared with the {@link RequestRetryAuthenticator}
+     */
+    public RequestAuthInterceptor(
+            AccountAuthenticator authenticator, @NonNull TokenRefreshGate refreshGate) {
+        this.authenticator = authenticator;
+        this.accounts = null;
+        this.refreshGate = refreshGate;
+    }
+
+    /**
+     * Create an interceptor that sends requests as the account selected with their {@link
+     * AccountTag}.
+     *
+     * @param authenticator the authenticator for requests without an {@link AccountTag}
+     * @param accounts provides the authenticators of the accounts selected with {@link AccountTag}
+     * @param refreshGate the gate shared with the {@link RequestRetryAuthenticator}
+     */
+    public RequestAuthInterceptor(
+            AccountAuthenticator authenticator,
+            @NonNull AccountAuthenticatorProvider accounts,
+            @NonNull TokenRefreshGate refreshGate) {
         this.authenticator = authenticator;
+        this.accounts = accounts;
+        this.refreshGate = refreshGate;
     }
 
     @Override
     public Response intercept(@NonNull Chain chain) throws IOException {
-        final String token = authenticator.getAccessToken();
+        final String accountName =
+                accounts != null ? AccountTag.accountName(chain.request()) : null;
+
+        final AccountAuthenticator authenticator = authenticatorFor(accountName);
+
+        final long start = System.nanoTime();
+        final String refreshedToken = refreshGate.awaitAccessToken(accountName);
+        final String token =
+                refreshedToken != null
+                        ? refreshedToken
+                        : refreshGate.replaceRejectedToken(
+                                accountName, authenticator.getAccessToken());
+        final long tokenNanos = System.nanoTime() - start;
 
         if (token.isEmpty()) {
             return chain.proceed(chain.request());
@@ -45,7 +95,19 @@ public class RequestAuthInterceptor implements Interceptor {
 
         final String authorization = Headers.AUTH_BEARER + token;
         requestBuilder.addHeader(Headers.AUTHORIZATION, authorization);
+        requestBuilder.tag(
+                AuthorizationTag.class,
+                new AuthorizationTag(token, tokenNanos, refreshedToken != null, false));
 
         return chain.proceed(requestBuilder.build());
     }
+
+    @NonNull
+    private AccountAuthenticator authenticatorFor(@Nullable String accountName)
+            throws IOException {
+        if (accountName == null || accounts == null) {
+            return authenticator;
+        }
+        return AccountTag.authenticator(accounts, accountName);
+    }
 }
@@ -4,6 +4,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.davidmedenjak.auth.AccountAuthenticator;
+import com.davidmedenjak.auth.AccountAuthenticatorProvider;
 
 import java.io.IOException;
 
@@ -21,7 +22,14 @@ import okhttp3.Route;
  * header by default.
  *
  * <p>If an invalid token was used this will call {@link
- * AccountAuthenticator#getNewAccessToken(String)} and retry with the new access token.
+ * AccountAuthenticator#getNewAccessToken(String)} and retry with the new access token. If the token
+ * was already replaced in the meantime, e.g. by another request failing with the same token, the
+ * request gets retried with the current token from {@link AccountAuthenticator#getAccessToken()}
+ * instead, so that a burst of 401 responses only leads to a single refresh. Concurrent retries
+ * wait for the refresh already running.
+ *
+ * <p>Requests that selected an account with an {@link AccountTag} get retried with a token of the
+ * same account. Refreshes of different accounts run independently.
  *
  * @see RequestAuthInterceptor
  * @see AccountAuthenticator
@@ -29,11 +37,43 @@ import okhttp3.Route;
 public class RequestRetryAuthenticator implements Authenticator {
 
     private final AccountAuthenticator authenticator;
+    @Nullable private final AccountAuthenticatorProvider accounts;
+    private final TokenRefreshGate refreshGate;
 
     /** @param authenticator an authenticator to fetch new access tokens from */
     @Inject
     public RequestRetryAuthenticator(AccountAuthenticator authenticator) {
+        this(authenticator, new TokenRefreshGate());
+    }
+
+    /**
+     * Create an authenticator that closes {@code refreshGate} while refreshing the token.
+     *
+     * @param authenticator an authenticator to fetch new access tokens from
+     * @param refreshGate the gate shared with the {@link RequestAuthInterceptor}
+     */
+    public RequestRetryAuthenticator(
+            AccountAuthenticator authenticator, @NonNull TokenRefreshGate refreshGate) {
+        this.authenticator = authenticator;
+        this.accounts = null;
+        this.refreshGate = refreshGate;
+    }
+
+    /**
+     * Create an authenticator that retries requests as the account selected with their {@link
+     * AccountTag}.
+     *
+     * @param authenticator the authenticator for requests without an {@link AccountTag}
+     * @param accounts provides the authenticators of the accounts selected with {@link AccountTag}
+     * @param refreshGate the gate shared with the {@link RequestAuthInterceptor}
+     */
+    public RequestRetryAuthenticator(
+            AccountAuthenticator authenticator,
+            @NonNull AccountAuthenticatorProvider accounts,
+            @NonNull TokenRefreshGate refreshGate) {
         this.authenticator = authenticator;
+        this.accounts = accounts;
+        this.refreshGate = refreshGate;
     }
 
     @Nullable
@@ -44,14 +84,23 @@ public class RequestRetryAuthenticator implements Authenticator {
             return null; // Give up, we've already attempted to refresh.
         }
 
-        final String invalidAccessToken = parseHeaderAccessToken(response);
+        final String invalidAccessToken = AuthorizationTag.accessToken(response.request());
+        final String accountName =
+                accounts != null ? AccountTag.accountName(response.request()) : null;
+        final AccountAuthenticator authenticator = authenticatorFor(accountName);
 
+        final long start = System.nanoTime();
         final String token;
         if (invalidAccessToken.isEmpty()) {
             token = authenticator.getAccessToken();
         } else {
-            token = authenticator.getNewAccessToken(invalidAccessToken);
+            token =
+                    refreshGate.refresh(
+                            accountName,
+                            invalidAccessToken,
+                            () -> getNewAccessToken(authenticator, invalidAccessToken));
         }
+        final long tokenNanos = System.nanoTime() - start;
 
         final String authorization = Headers.AUTH_BEARER + token;
 
@@ -59,15 +108,31 @@ public class RequestRetryAuthenticator implements Authenticator {
                 .newBuilder()
                 .removeHeader(Headers.AUTHORIZATION)
                 .addHeader(Headers.AUTHORIZATION, authorization)
+                .tag(
+                        AuthorizationTag.class,
+                        new AuthorizationTag(
+                                token, tokenNanos, !invalidAccessToken.isEmpty(), true))
                 .build();
     }
 
     @NonNull
-    private String parseHeaderAccessToken(@NonNull Response response) {
-        final String invalidAuth = response.request().header(Headers.AUTHORIZATION);
-        if (invalidAuth == null) {
-            return "";
+    private AccountAuthenticator authenticatorFor(@Nullable String accountName)
+            throws IOException {
+        if (accountName == null || accounts == null) {
+            return authenticator;
+        }
+        return AccountTag.authenticator(accounts, accountName);
+    }
+
+    @NonNull
+    private static String getNewAccessToken(
+            @NonNull AccountAuthenticator authenticator, @NonNull String invalidAccessToken)
+            throws IOException {
+        // another request might have already refreshed the token
+        final String currentAccessToken = authenticator.getAccessToken();
+        if (!currentAccessToken.isEmpty() && !currentAccessToken.equals(invalidAccessToken)) {
+            return currentAccessToken;
         }
-        return invalidAuth.substring(Headers.AUTH_BEARER.length());
+        return authenticator.getNewAccessToken(invalidAccessToken);
     }
 }
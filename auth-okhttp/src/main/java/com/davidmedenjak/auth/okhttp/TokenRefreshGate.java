@@ -0,0 +1,213 @@
+package com.davidmedenjak.auth.okhttp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds back requests while an access token is being refreshed.
+ *
+ * <p>Share one instance between {@link RequestAuthInterceptor} and {@link
+ * RequestRetryAuthenticator}. Once a request fails with an invalid token, the retry authenticator
+ * closes the gate until it has a new token. New requests passing the interceptor in the meantime
+ * wait for that token instead of being sent with the invalid one, only to fail and be retried as
+ * well. If the refresh fails, all waiting requests fail with the same error. Requests that got
+ * the rejected token from the authenticator just before the gate closed get the new token as
+ * well.
+ *
+ * <p>Requests sent as different accounts with {@link AccountTag} pass the gate independently, so a
+ * refresh for one account never holds back the requests of another.
+ *
+ * <pre>{@code
+ * TokenRefreshGate gate = new TokenRefreshGate();
+ * OkHttpClient client = new OkHttpClient.Builder()
+ *         .addInterceptor(new RequestAuthInterceptor(authenticator, gate))
+ *         .authenticator(new RequestRetryAuthenticator(authenticator, gate))
+ *         .build();
+ * }</pre>
+ */
+public final class TokenRefreshGate {
+
+    /** The key of requests that don't select an account. */
+    private static final Object DEFAULT_ACCOUNT = new Object();
+
+    private final Object lock = new Object();
+    /** The last refresh of every account, running or completed. */
+    private final Map<Object, Refresh> refreshes = new HashMap<>();
+
+    public TokenRefreshGate() {}
+
+    /**
+     * Wait for a running refresh to finish.
+     *
+     * @return the new access token, or {@code null} if no refresh is running
+     * @throws IOException the error of the running refresh if it failed
+     */
+    @Nullable
+    String awaitAccessToken() throws IOException {
+        return awaitAccessToken(null);
+    }
+
+    /**
+     * Wait for a running refresh of {@code accountName} to finish.
+     *
+     * @param accountName the account selected with {@link AccountTag}, or {@code null}
+     * @return the new access token, or {@code null} if no refresh is running
+     * @throws IOException the error of the running refresh if it failed
+     */
+    @Nullable
+    String awaitAccessToken(@Nullable String accountName) throws IOException {
+        final Refresh refresh;
+        synchronized (lock) {
+            refresh = refreshes.get(key(accountName));
+        }
+        return refresh != null && !refresh.isDone() ? refresh.await() : null;
+    }
+
+    /**
+     * Get the token that replaced {@code accessToken} if it was already rejected with a {@code
+     * 401}, so that requests don't get sent with a token known to be invalid.
+     *
+     * @param accountName the account selected with {@link AccountTag}, or {@code null}
+     * @param accessToken the access token about to be used
+     * @return the new access token, or {@code accessToken} if it wasn't rejected or could not be
+     *     replaced
+     * @throws IOException the error of the running refresh if it failed
+     */
+    @NonNull
+    String replaceRejectedToken(@Nullable String accountName, @NonNull String accessToken)
+            throws IOException {
+        final Refresh refresh;
+        synchronized (lock) {
+            refresh = refreshes.get(key(accountName));
+        }
+        if (refresh == null || !accessToken.equals(refresh.invalidAccessToken)) {
+            return accessToken;
+        }
+        if (!refresh.isDone()) {
+            return refresh.await();
+        }
+        // after a failed refresh the next 401 has to start a new one
+        final String replacement = refresh.getAccessToken();
+        return replacement != null ? replacement : accessToken;
+    }
+
+    /**
+     * Refresh the access token with the gate closed, or wait for the refresh already running.
+     *
+     * @param source fetches the new access token
+     * @return the new access token
+     * @throws IOException if the refresh failed
+     */
+    @NonNull
+    String refresh(@NonNull TokenSource source) throws IOException {
+        return refresh(null, null, source);
+    }
+
+    /**
+     * Refresh the access token of {@code accountName} with its gate closed, or wait for the
+     * refresh already running.
+     *
+     * @param accountName the account selected with {@link AccountTag}, or {@code null}
+     * @param invalidAccessToken the token rejected by the server, or {@code null} if unknown
+     * @param source fetches the new access token
+     * @return the new access token
+     * @throws IOException if the refresh failed
+     */
+    @NonNull
+    String refresh(
+            @Nullable String accountName,
+            @Nullable String invalidAccessToken,
+            @NonNull TokenSource source)
+            throws IOException {
+        final Object key = key(accountName);
+        final Refresh refresh = new Refresh(invalidAccessToken);
+        final Refresh running;
+        synchronized (lock) {
+            final Refresh last = refreshes.get(key);
+            running = last != null && !last.isDone() ? last : null;
+            if (running == null) {
+                refreshes.put(key, refresh);
+            }
+        }
+        if (running != null) {
+            // wait outside of the lock so that the running refresh can complete
+            return running.await();
+        }
+
+        String accessToken = null;
+        Throwable error = null;
+        try {
+            accessToken = source.getAccessToken();
+            return accessToken;
+        } catch (Throwable e) {
+            error = e;
+            throw e;
+        } finally {
+            refresh.complete(accessToken, error);
+        }
+    }
+
+    @NonNull
+    private static Object key(@Nullable String accountName) {
+        return accountName != null ? accountName : DEFAULT_ACCOUNT;
+    }
+
+    /** Provides a new access token. */
+    interface TokenSource {
+        @NonNull
+        String getAccessToken() throws IOException;
+    }
+
+    private static final class Refresh {
+
+        @Nullable private final String invalidAccessToken;
+
+        private boolean done;
+        private String accessToken;
+        private Throwable error;
+
+        private Refresh(@Nullable String invalidAccessToken) {
+            this.invalidAccessToken = invalidAccessToken;
+        }
+
+        private synchronized void complete(String accessToken, Throwable error) {
+            this.accessToken = accessToken;
+            this.error = error;
+            done = true;
+            notifyAll();
+        }
+
+        private synchronized boolean isDone() {
+            return done;
+        }
+
+        /** @return the new access token, or {@code null} if the refresh failed */
+        @Nullable
+        private synchronized String getAccessToken() {
+            return accessToken;
+        }
+
+        @NonNull
+        private synchronized String await() throws IOException {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for the access token");
+                }
+            }
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (accessToken == null) {
+                throw new IOException("Refreshing the access token failed", error);
+            }
+            return accessToken;
+        }
+    }
+}
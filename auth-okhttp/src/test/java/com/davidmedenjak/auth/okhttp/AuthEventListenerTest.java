@@ -0,0 +1,140 @@
+package com.davidmedenjak.auth.okhttp;
+
+import androidx.annotation.NonNull;
+
+import com.davidmedenjak.auth.AccountAuthenticator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AuthEventListenerTest {
+
+    private final MockWebServer server = new MockWebServer();
+    private final List<ReportedCall> calls = new ArrayList<>();
+
+    private AccountAuthenticator authenticator;
+    private OkHttpClient client;
+
+    @Before
+    public void before() throws IOException {
+        server.start();
+        authenticator = mock(AccountAuthenticator.class);
+        client =
+                new OkHttpClient.Builder()
+                        .addInterceptor(new RequestAuthInterceptor(authenticator))
+                        .authenticator(new RequestRetryAuthenticator(authenticator))
+                        .eventListenerFactory(AuthEventListener.factory(this::record))
+                        .build();
+    }
+
+    @After
+    public void after() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void authenticatedCallReported() throws IOException {
+        when(authenticator.getAccessToken()).thenReturn("valid");
+        server.enqueue(new MockResponse());
+
+        execute("/users/42/posts");
+
+        assertEquals(1, calls.size());
+        ReportedCall call = calls.get(0);
+        assertEquals(server.getHostName(), call.host);
+        assertEquals("/users/{id}/posts", call.path);
+        assertEquals(0, call.retries);
+        assertFalse(call.awaitedRefresh);
+        assertFalse(call.failed);
+    }
+
+    @Test
+    public void retryReported() throws IOException {
+        when(authenticator.getAccessToken()).thenReturn("invalid", "invalid");
+        when(authenticator.getNewAccessToken("invalid")).thenReturn("valid");
+        server.enqueue(new MockResponse().setResponseCode(401));
+        server.enqueue(new MockResponse());
+
+        execute("/users");
+
+        assertEquals(1, calls.size());
+        assertEquals(1, calls.get(0).retries);
+        assertTrue(calls.get(0).awaitedRefresh);
+    }
+
+    @Test
+    public void unauthenticatedCallIgnored() throws IOException {
+        when(authenticator.getAccessToken()).thenReturn("");
+        server.enqueue(new MockResponse());
+
+        execute("/login");
+
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void idsReplacedInPath() {
+        assertEquals(
+                "/users/{id}/files/{id}/raw",
+                template("/users/123/files/3f2c1b9a-7e4d-4c1a-9b2e-8d6f0a1c2e3b/raw"));
+        assertEquals("/users/me/feed", template("/users/me/feed"));
+        assertEquals("/", template("/"));
+    }
+
+    private void execute(String path) throws IOException {
+        Request request = new Request.Builder().url(server.url(path)).build();
+        try (Response response = client.newCall(request).execute()) {
+            response.body().string();
+        }
+    }
+
+    private static String template(String path) {
+        HttpUrl url = HttpUrl.get("http://localhost" + path);
+        return AuthEventListener.PathTemplate.IDS.template(url);
+    }
+
+    private void record(
+            @NonNull String host,
+            @NonNull String path,
+            long tokenNanos,
+            boolean awaitedRefresh,
+            int retries,
+            boolean failed) {
+        calls.add(new ReportedCall(host, path, awaitedRefresh, retries, failed));
+    }
+
+    private static class ReportedCall {
+        private final String host;
+        private final String path;
+        private final boolean awaitedRefresh;
+        private final int retries;
+        private final boolean failed;
+
+        private ReportedCall(
+                String host, String path, boolean awaitedRefresh, int retries, boolean failed) {
+            this.host = host;
+            this.path = path;
+            this.awaitedRefresh = awaitedRefresh;
+            this.retries = retries;
+            this.failed = failed;
+        }
+    }
+}
@@ -4,10 +4,19 @@ import com.davidmedenjak.auth.AccountAuthenticator;
 
 import junit.framework.Assert;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import okhttp3.Interceptor;
 import okhttp3.Protocol;
@@ -16,6 +25,8 @@ import okhttp3.Response;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class RequestAuthInterceptorTest {
@@ -23,6 +34,7 @@ public class RequestAuthInterceptorTest {
     private AccountAuthenticator authenticator;
     private Interceptor interceptor;
     private Interceptor.Chain chain;
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
 
     @Before
     public void before() throws IOException {
@@ -44,6 +56,11 @@ public class RequestAuthInterceptorTest {
                                         .build());
     }
 
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
     @Test
     public void authHeaderGetsAdded() throws Exception {
         String accessToken = "valid";
@@ -63,4 +80,191 @@ public class RequestAuthInterceptorTest {
 
         Assert.assertNull(response.request().header("Authorization"));
     }
+
+    @Test
+    public void requestWaitsForRunningRefresh() throws Exception {
+        TokenRefreshGate gate = new TokenRefreshGate();
+        interceptor = new RequestAuthInterceptor(authenticator, gate);
+        CountDownLatch finishRefresh = startRefresh(gate, () -> "refreshed");
+
+        Future<Response> response = interceptWhileRefreshing(finishRefresh);
+
+        Assert.assertEquals(
+                "Bearer refreshed",
+                response.get(5, TimeUnit.SECONDS).request().header("Authorization"));
+        verify(authenticator, never()).getAccessToken();
+    }
+
+    @Test
+    public void requestFailsWithRefreshError() throws Exception {
+        TokenRefreshGate gate = new TokenRefreshGate();
+        interceptor = new RequestAuthInterceptor(authenticator, gate);
+        IOException error = new IOException("refresh failed");
+        CountDownLatch finishRefresh =
+                startRefresh(
+                        gate,
+                        () -> {
+                            throw error;
+                        });
+
+        Future<Response> response = interceptWhileRefreshing(finishRefresh);
+
+        try {
+            response.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the request to fail");
+        } catch (ExecutionException e) {
+            Assert.assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void requestFailsWhenRefreshThrowsError() throws Exception {
+        TokenRefreshGate gate = new TokenRefreshGate();
+        interceptor = new RequestAuthInterceptor(authenticator, gate);
+        AssertionError error = new AssertionError("refresh crashed");
+        CountDownLatch finishRefresh =
+                startRefresh(
+                        gate,
+                        () -> {
+                            throw error;
+                        });
+
+        Future<Response> response = interceptWhileRefreshing(finishRefresh);
+
+        try {
+            response.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the request to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+            Assert.assertSame(error, e.getCause().getCause());
+        }
+    }
+
+    @Test
+    public void rejectedTokenReplacedBeforeSending() throws Exception {
+        TokenRefreshGate gate = new TokenRefreshGate();
+        interceptor = new RequestAuthInterceptor(authenticator, gate);
+        gate.refresh(null, "rejected", () -> "refreshed");
+        when(authenticator.getAccessToken()).thenReturn("rejected");
+
+        Response response = interceptor.intercept(chain);
+
+        Assert.assertEquals("Bearer refreshed", response.request().header("Authorization"));
+    }
+
+    @Test
+    public void rejectedTokenSentAfterFailedRefresh() throws Exception {
+        TokenRefreshGate gate = new TokenRefreshGate();
+        interceptor = new RequestAuthInterceptor(authenticator, gate);
+        try {
+            gate.refresh(
+                    null,
+                    "rejected",
+                    () -> {
+                        throw new IOException("refresh failed");
+                    });
+        } catch (IOException expected) {
+        }
+        when(authenticator.getAccessToken()).thenReturn("rejected");
+
+        Response response = interceptor.intercept(chain);
+
+        // the server has to reject it again to start a new refresh
+        Assert.assertEquals("Bearer rejected", response.request().header("Authorization"));
+    }
+
+    @Test
+    public void taggedRequestUsesTokenOfAccount() throws Exception {
+        AccountAuthenticator alice = mock(AccountAuthenticator.class);
+        when(alice.getAccessToken()).thenReturn("alice");
+        interceptor =
+                new RequestAuthInterceptor(authenticator, name -> alice, new TokenRefreshGate());
+        tagRequest("alice");
+
+        Response response = interceptor.intercept(chain);
+
+        Assert.assertEquals("Bearer alice", response.request().header("Authorization"));
+        verify(authenticator, never()).getAccessToken();
+    }
+
+    @Test
+    public void unknownAccountFailsRequest() throws Exception {
+        interceptor =
+                new RequestAuthInterceptor(
+                        authenticator,
+                        name -> {
+                            throw new IllegalArgumentException("Unknown account " + name);
+                        },
+                        new TokenRefreshGate());
+        tagRequest("alice");
+
+        try {
+            interceptor.intercept(chain);
+            Assert.fail("request sent with unknown account");
+        } catch (IOException e) {
+            Assert.assertEquals("Unknown account alice", e.getMessage());
+        }
+        verify(chain, never()).proceed(any());
+    }
+
+    @Test
+    public void refreshOfOtherAccountDoesNotHoldBackRequest() throws Exception {
+        TokenRefreshGate gate = new TokenRefreshGate();
+        AccountAuthenticator alice = mock(AccountAuthenticator.class);
+        when(alice.getAccessToken()).thenReturn("alice");
+        interceptor = new RequestAuthInterceptor(authenticator, name -> alice, gate);
+        CountDownLatch finishRefresh = startRefresh(gate, () -> "refreshed");
+        tagRequest("alice");
+
+        try {
+            Response response = interceptor.intercept(chain);
+
+            Assert.assertEquals("Bearer alice", response.request().header("Authorization"));
+        } finally {
+            finishRefresh.countDown();
+        }
+    }
+
+    private void tagRequest(String accountName) {
+        Request request =
+                new Request.Builder()
+                        .url("http://localhost/")
+                        .tag(AccountTag.class, AccountTag.of(accountName))
+                        .build();
+        when(chain.request()).thenReturn(request);
+    }
+
+    /** Start a refresh that blocks until the returned latch gets released. */
+    private CountDownLatch startRefresh(
+            TokenRefreshGate gate, TokenRefreshGate.TokenSource result) throws Exception {
+        CountDownLatch refreshStarted = new CountDownLatch(1);
+        CountDownLatch finishRefresh = new CountDownLatch(1);
+        executor.submit(
+                () ->
+                        gate.refresh(
+                                () -> {
+                                    refreshStarted.countDown();
+                                    try {
+                                        finishRefresh.await();
+                                    } catch (InterruptedException e) {
+                                        throw new InterruptedIOException();
+                                    }
+                                    return result.getAccessToken();
+                                }));
+        refreshStarted.await();
+        return finishRefresh;
+    }
+
+    /** Run the interceptor and finish the refresh once the request is waiting for it. */
+    private Future<Response> interceptWhileRefreshing(CountDownLatch finishRefresh)
+            throws InterruptedException {
+        FutureTask<Response> response = new FutureTask<>(() -> interceptor.intercept(chain));
+        Thread thread = new Thread(response);
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        finishRefresh.countDown();
+        return response;
+    }
 }
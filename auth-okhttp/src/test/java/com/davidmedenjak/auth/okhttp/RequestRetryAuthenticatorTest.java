@@ -8,6 +8,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import okhttp3.Protocol;
 import okhttp3.Request;
@@ -15,7 +20,9 @@ import okhttp3.Response;
 
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -92,4 +99,94 @@ public class RequestRetryAuthenticatorTest {
         assertNotNull(request);
         Assert.assertEquals("Bearer " + validAccessToken, request.header("Authorization"));
     }
+
+    @Test
+    public void retryWithAlreadyRefreshedToken() throws Exception {
+        when(accountAuthenticator.getAccessToken()).thenAnswer(invocation -> validAccessToken);
+
+        Request request = requestRetryAuthenticator.authenticate(null, response);
+
+        assertNotNull(request);
+        verify(accountAuthenticator, never()).getNewAccessToken(anyString());
+        Assert.assertEquals("Bearer " + validAccessToken, request.header("Authorization"));
+    }
+
+    @Test
+    public void invalidTokenReadFromTag() throws Exception {
+        when(accountAuthenticator.getAccessToken()).thenAnswer(invocation -> "tagged");
+        when(accountAuthenticator.getNewAccessToken("tagged"))
+                .thenAnswer(invocation -> validAccessToken);
+
+        Response taggedResponse =
+                response.newBuilder()
+                        .request(
+                                response.request()
+                                        .newBuilder()
+                                        .tag(AuthorizationTag.class, new AuthorizationTag("tagged"))
+                                        .build())
+                        .build();
+        Request request = requestRetryAuthenticator.authenticate(null, taggedResponse);
+
+        assertNotNull(request);
+        verify(accountAuthenticator, times(1)).getNewAccessToken("tagged");
+        Assert.assertEquals("Bearer " + validAccessToken, request.header("Authorization"));
+    }
+
+    @Test
+    public void concurrentRetriesShareRefresh() throws Exception {
+        when(accountAuthenticator.getAccessToken()).thenAnswer(invocation -> invalidAccessToken);
+        CountDownLatch refreshStarted = new CountDownLatch(1);
+        CountDownLatch finishRefresh = new CountDownLatch(1);
+        when(accountAuthenticator.getNewAccessToken(invalidAccessToken))
+                .thenAnswer(
+                        invocation -> {
+                            refreshStarted.countDown();
+                            finishRefresh.await();
+                            return validAccessToken;
+                        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Request> first =
+                    executor.submit(() -> requestRetryAuthenticator.authenticate(null, response));
+            refreshStarted.await();
+            Future<Request> second =
+                    executor.submit(() -> requestRetryAuthenticator.authenticate(null, response));
+            // give the second retry a chance to queue up behind the first one
+            Thread.sleep(50);
+            finishRefresh.countDown();
+
+            Assert.assertEquals(
+                    "Bearer " + validAccessToken,
+                    first.get(5, TimeUnit.SECONDS).header("Authorization"));
+            Assert.assertEquals(
+                    "Bearer " + validAccessToken,
+                    second.get(5, TimeUnit.SECONDS).header("Authorization"));
+            verify(accountAuthenticator, times(1)).getNewAccessToken(invalidAccessToken);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void taggedRequestRetriedWithTokenOfAccount() throws Exception {
+        AccountAuthenticator alice = mock(AccountAuthenticator.class);
+        when(alice.getAccessToken()).thenReturn(invalidAccessToken);
+        when(alice.getNewAccessToken(invalidAccessToken)).thenReturn("alice");
+        requestRetryAuthenticator =
+                new RequestRetryAuthenticator(
+                        accountAuthenticator, name -> alice, new TokenRefreshGate());
+        Request tagged =
+                response.request()
+                        .newBuilder()
+                        .tag(AccountTag.class, AccountTag.of("alice"))
+                        .build();
+
+        Request request =
+                requestRetryAuthenticator.authenticate(
+                        null, response.newBuilder().request(tagged).build());
+
+        Assert.assertEquals("Bearer alice", request.header("Authorization"));
+        verify(accountAuthenticator, never()).getNewAccessToken(anyString());
+    }
 }
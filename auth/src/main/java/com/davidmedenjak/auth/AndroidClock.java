@@ -0,0 +1,21 @@
+package com.davidmedenjak.auth;
+
+import android.os.SystemClock;
+
+/** Measures intervals with {@link SystemClock#elapsedRealtime()}, which also counts deep sleep. */
+final class AndroidClock implements Clock {
+
+    static final Clock INSTANCE = new AndroidClock();
+
+    private AndroidClock() {}
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long elapsedMillis() {
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -0,0 +1,40 @@
+package com.davidmedenjak.auth;
+
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A non-blocking variant of {@link AuthCallback}. Use this if you can refresh tokens
+ * asynchronously, e.g. with {@code okhttp3.Call#enqueue}, so that no thread has to wait for the
+ * network call.
+ *
+ * <p>If the {@link AuthCallback} returned by {@link AuthenticatorService#getAuthCallback()} also
+ * implements this interface, {@link OAuthAuthenticator} will use the asynchronous variant.
+ *
+ * @see AuthCallback
+ */
+public interface AsyncAuthCallback extends TokenRefresher {
+
+    /**
+     * Create an Intent to start your Login flow.
+     *
+     * @return an Intent that starts the flow to add an account, or {@code null}
+     * @see AuthCallback#getLoginIntent()
+     */
+    @Nullable
+    Intent getLoginIntent();
+
+    /**
+     * Re-authenticate the user with the previously stored refresh token. This method should
+     * return immediately and report the result to {@code callback} exactly once, from any thread.
+     *
+     * @param refreshToken the refresh token stored from {@link TokenPair#refreshToken} at the time
+     *     of the last login or refresh
+     * @param callback the callback to report the new TokenPair or an error to
+     * @see AuthCallback#authenticate(String)
+     */
+    @Override
+    void authenticate(@NonNull String refreshToken, @NonNull TokenCallback callback);
+}
@@ -32,12 +32,17 @@ public interface AuthCallback {
      * Re-authenticate the user with the previously stored refresh token. Return the new refresh
      * token or throw an exception if an error occurs.
      *
+     * <p>This will only be called once at a time for every account and token type. If you use
+     * multiple token types with the same account, refreshes for different types may run
+     * concurrently.
+     *
      * @param refreshToken the refresh token stored from {@link TokenPair#refreshToken} at the time
      *     of the last login or refresh
      * @throws IOException when there is an error refreshing the token. This defaults to {@link
      *     TokenRefreshError#NETWORK}.
      * @throws TokenRefreshError when there is an error refreshing the token to provide a better
-     *     error to the listeners.
+     *     error to the listeners. Network errors pause further refreshes for a while, use {@link
+     *     TokenRefreshError#TokenRefreshError(int, String, long)} to report a {@code Retry-After}.
      * @return the new TokenPair to use for future authentication
      */
     @NonNull TokenPair authenticate(@NonNull final String refreshToken)
@@ -1,11 +1,20 @@
 package com.davidmedenjak.auth;
 
-import android.accounts.AbstractAccountAuthenticator;
+import android.accounts.AccountManager;
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+
+import com.davidmedenjak.auth.store.AccountManagerTokenStore;
+import com.davidmedenjak.auth.store.TokenStore;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
+
 /**
  * A Service used to register {@link OAuthAuthenticator} with the Android framework.
  *
@@ -16,7 +25,7 @@ public abstract class AuthenticatorService extends Service {
 
     private static final String TAG = "AuthenticatorService";
 
-    private AbstractAccountAuthenticator authenticator;
+    private OAuthAuthenticator authenticator;
 
     @Override
     public void onCreate() {
@@ -27,11 +36,27 @@ public abstract class AuthenticatorService extends Service {
     public IBinder onBind(Intent intent) {
         Log.v(TAG, "onBind " + intent.toString());
         if (authenticator == null) {
-            authenticator = new OAuthAuthenticator(this, getAuthCallback());
+            authenticator =
+                    new OAuthAuthenticator(
+                            this, getAuthCallback(), getRefreshExecutor(), getTokenStore());
+            authenticator.setMetrics(getAuthMetrics());
         }
         return authenticator.getIBinder();
     }
 
+    /**
+     * Print the state of the {@link OAuthAuthenticator} with {@code adb shell dumpsys activity
+     * service <your.package>/<AuthenticatorService>}.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (authenticator == null) {
+            writer.println("Not bound");
+            return;
+        }
+        authenticator.dump(writer);
+    }
+
     /**
      * Provide an AuthCallback to be used with the {@link OAuthAuthenticator}
      *
@@ -39,4 +64,40 @@ public abstract class AuthenticatorService extends Service {
      * @see AuthCallback
      */
     public abstract AuthCallback getAuthCallback();
+
+    /**
+     * Provide the Executor used to refresh tokens with the {@link AuthCallback}. Override this to
+     * share a thread pool with the rest of your app.
+     *
+     * @return the executor to refresh tokens on
+     * @see OAuthAuthenticator#createRefreshExecutor()
+     */
+    @NonNull
+    public Executor getRefreshExecutor() {
+        return OAuthAuthenticator.createRefreshExecutor();
+    }
+
+    /**
+     * Provide the store to persist tokens in. Override this to keep tokens out of the {@link
+     * AccountManager}, and use the same store with your {@link
+     * com.davidmedenjak.auth.manager.OAuthAccountManager OAuthAccountManager}.
+     *
+     * @return the token store
+     * @see TokenStore
+     */
+    @NonNull
+    public TokenStore getTokenStore() {
+        return new AccountManagerTokenStore(AccountManager.get(this));
+    }
+
+    /**
+     * Get the listener to report token lookups and refreshes to. Override this to collect metrics,
+     * e.g. with {@link CountingAuthMetrics}.
+     *
+     * @return the listener, {@link AuthMetrics#NONE} by default
+     */
+    @NonNull
+    public AuthMetrics getAuthMetrics() {
+        return AuthMetrics.NONE;
+    }
 }
@@ -0,0 +1,58 @@
+package com.davidmedenjak.auth;
+
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Adapts a blocking {@link AuthCallback} by running it on an {@link Executor}. If the executor
+ * rejects the refresh it fails with {@link TokenRefreshError#ERROR_CODE_REMOTE_EXCEPTION}, which
+ * doesn't put further refreshes on hold like a network error would.
+ */
+class BlockingAuthCallback implements AsyncAuthCallback {
+
+    private final AuthCallback callback;
+    private final Executor executor;
+
+    BlockingAuthCallback(@NonNull AuthCallback callback, @NonNull Executor executor) {
+        this.callback = callback;
+        this.executor = executor;
+    }
+
+    @Nullable
+    @Override
+    public Intent getLoginIntent() {
+        return callback.getLoginIntent();
+    }
+
+    @Override
+    public void authenticate(@NonNull String refreshToken, @NonNull TokenCallback tokenCallback) {
+        final Runnable refresh =
+                () -> {
+                    final TokenPair result;
+                    Tracing.beginSection("AuthCallback#authenticate");
+                    try {
+                        result = callback.authenticate(refreshToken);
+                    } catch (Exception e) {
+                        tokenCallback.onError(e);
+                        return;
+                    } finally {
+                        Tracing.endSection();
+                    }
+                    tokenCallback.onTokenRefreshed(result);
+                };
+        try {
+            executor.execute(refresh);
+        } catch (RejectedExecutionException e) {
+            // the executor is saturated or shut down, fail instead of blocking the binder thread
+            tokenCallback.onError(
+                    new TokenRefreshError(
+                            TokenRefreshError.ERROR_CODE_REMOTE_EXCEPTION,
+                            "Too many token refreshes"));
+        }
+    }
+}
@@ -1,13 +1,17 @@
 package com.davidmedenjak.auth;
 
 import android.os.Bundle;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.Locale;
+
 /** Used for logging bundle contents. */
 class BundleUtil {
 
     /**
-     * Print a bundle as Json-ish style string.
+     * Print a bundle as Json-ish style string. Values of keys that look like tokens or passwords
+     * get {@link AuthLogger#redact(String) redacted}.
      *
      * @param bundle the bundle
      * @return a json-ish string of all keys/values
@@ -28,6 +32,8 @@ class BundleUtil {
 
             if (value instanceof Bundle) {
                 builder.append(toString((Bundle) value));
+            } else if (isSecret(key)) {
+                builder.append("\"").append(AuthLogger.redact(String.valueOf(value))).append("\"");
             } else {
                 builder.append("\"").append(value).append("\"");
             }
@@ -35,4 +41,9 @@ class BundleUtil {
         }
         return builder.append("}").toString();
     }
+
+    private static boolean isSecret(@NonNull String key) {
+        final String lowerCase = key.toLowerCase(Locale.US);
+        return lowerCase.contains("token") || lowerCase.contains("password");
+    }
 }
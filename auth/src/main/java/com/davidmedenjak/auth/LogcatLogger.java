@@ -0,0 +1,25 @@
+package com.davidmedenjak.auth;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/** Logs to logcat with debug priority. */
+final class LogcatLogger implements AuthLogger {
+
+    private final String tag;
+
+    LogcatLogger(@NonNull String tag) {
+        this.tag = tag;
+    }
+
+    @Override
+    public boolean isLoggable() {
+        return true;
+    }
+
+    @Override
+    public void log(@NonNull String message) {
+        Log.d(tag, message);
+    }
+}
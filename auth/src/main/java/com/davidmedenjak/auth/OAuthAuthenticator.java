@@ -8,17 +8,19 @@ import android.accounts.NetworkErrorException;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.text.TextUtils;
-import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.io.IOException;
-import java.util.ArrayList;
+import com.davidmedenjak.auth.store.AccountManagerTokenStore;
+import com.davidmedenjak.auth.store.TokenStore;
+
+import java.io.PrintWriter;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
@@ -26,11 +28,31 @@ import javax.inject.Inject;
  * A basic implementation of an {@link AbstractAccountAuthenticator} to support OAuth use cases,
  * where accounts get persisted with a refresh token as the {@code password}.
  *
+ * <p>The refresh logic itself lives in the Android independent {@link RefreshCoordinator}.
+ *
  * <p>Token refreshes will always be done <i>once</i>. Even if multiple threads request a new access
  * token simultaneously only one thread will refresh the token via {@link
  * com.davidmedenjak.auth.AuthCallback#authenticate(String)} and propagate the result to the others.
  * This is to prevent problems with APIs that only allow one usage of refresh tokens and to reduce
- * load.
+ * load. Lookups are tracked per account <i>and</i> token type, so tokens of different types refresh
+ * independently of each other.
+ *
+ * <p>Refreshes run on a separate {@link Executor} and return their result via the {@link
+ * AccountAuthenticatorResponse}, so that the binder threads of the {@link AuthenticatorService}
+ * don't get blocked by slow network calls. With an {@link AsyncAuthCallback} no thread gets parked
+ * at all while the token gets refreshed.
+ *
+ * <p>If {@link AuthCallback#authenticate(String)} returns a {@link TokenPair} with a known {@link
+ * TokenPair#expiresAt expiry}, the token will be refreshed once it is about to expire instead of
+ * waiting for a request to fail. See {@link #setRefreshWindowMillis(long)}.
+ *
+ * <p>If a refresh fails with a {@link TokenRefreshError#NETWORK network error}, further refreshes
+ * for the account are put on hold with a jittered, exponential backoff, or for the {@link
+ * TokenRefreshError#getRetryAfterMillis() retry after} reported by the callback. Requests in the
+ * meantime get the same error without calling {@link AuthCallback#authenticate(String)}.
+ *
+ * <p>Tokens get stored with the {@link AccountManager} by default. Use a different {@link
+ * TokenStore} to keep them in-process instead.
  *
  * <p><b>Usage</b>
  *
@@ -38,31 +60,143 @@ import javax.inject.Inject;
  * OAuthAccountManager} that will wrap the framework {@link AccountManager} and provide a basic tool
  * for login / logout and accessToken handling with a single account.
  *
- * @see CallbackListener
+ * @see RefreshCoordinator
  */
 @SuppressWarnings("unused")
 public class OAuthAuthenticator extends AbstractAccountAuthenticator {
 
     private static final String TAG = "OAuthAuthenticator";
 
-    private final AuthCallback service;
-    private final AccountManager accountManager;
+    private static final int MAX_REFRESH_THREADS = 4;
+    private static final long REFRESH_THREAD_KEEP_ALIVE_SECONDS = 30;
+    private static final int MAX_QUEUED_REFRESHES = 32;
 
-    private boolean loggingEnabled = false;
+    private final AsyncAuthCallback service;
+    private final TokenStore tokenStore;
+    private final RefreshCoordinator<Account> refreshCoordinator;
 
-    private HashMap<Account, FetchingAuthModel> activeLookups = new HashMap<>();
+    private volatile AuthLogger logger = AuthLogger.NONE;
 
     @Inject
     public OAuthAuthenticator(Context context, AuthCallback service) {
+        this(context, service, createRefreshExecutor());
+    }
+
+    /**
+     * Create a new authenticator that refreshes tokens on {@code refreshExecutor}.
+     *
+     * @param context the context
+     * @param service the callback used to refresh tokens
+     * @param refreshExecutor the executor to run {@link AuthCallback#authenticate(String)} on. This
+     *     should use a bounded number of threads and a bounded queue. Unused if {@code service}
+     *     implements {@link AsyncAuthCallback}.
+     * @see #createRefreshExecutor()
+     */
+    public OAuthAuthenticator(
+            Context context, AuthCallback service, @NonNull Executor refreshExecutor) {
+        this(
+                context,
+                service,
+                refreshExecutor,
+                new AccountManagerTokenStore(AccountManager.get(context)));
+    }
+
+    /**
+     * Create a new authenticator that refreshes tokens on {@code refreshExecutor} and persists them
+     * with {@code tokenStore}.
+     *
+     * @param context the context
+     * @param service the callback used to refresh tokens
+     * @param refreshExecutor the executor to run {@link AuthCallback#authenticate(String)} on. This
+     *     should use a bounded number of threads and a bounded queue. Unused if {@code service}
+     *     implements {@link AsyncAuthCallback}.
+     * @param tokenStore the store to read and write tokens
+     */
+    public OAuthAuthenticator(
+            Context context,
+            AuthCallback service,
+            @NonNull Executor refreshExecutor,
+            @NonNull TokenStore tokenStore) {
+        this(
+                context,
+                service instanceof AsyncAuthCallback
+                        ? (AsyncAuthCallback) service
+                        : new BlockingAuthCallback(service, refreshExecutor),
+                tokenStore);
+    }
+
+    /**
+     * Create a new authenticator that refreshes tokens asynchronously.
+     *
+     * @param context the context
+     * @param service the callback used to refresh tokens
+     */
+    public OAuthAuthenticator(Context context, AsyncAuthCallback service) {
+        this(context, service, new AccountManagerTokenStore(AccountManager.get(context)));
+    }
+
+    /**
+     * Create a new authenticator that refreshes tokens asynchronously and persists them with
+     * {@code tokenStore}.
+     *
+     * @param context the context
+     * @param service the callback used to refresh tokens
+     * @param tokenStore the store to read and write tokens
+     */
+    public OAuthAuthenticator(
+            Context context, AsyncAuthCallback service, @NonNull TokenStore tokenStore) {
+        this(context, service, tokenStore, AndroidClock.INSTANCE);
+    }
+
+    /**
+     * Create a new authenticator that refreshes tokens asynchronously and measures token expiry
+     * and refresh backoff with {@code clock}, e.g. to test time dependent behavior.
+     *
+     * @param context the context
+     * @param service the callback used to refresh tokens
+     * @param tokenStore the store to read and write tokens
+     * @param clock the time source for expiry and backoff
+     */
+    public OAuthAuthenticator(
+            Context context,
+            AsyncAuthCallback service,
+            @NonNull TokenStore tokenStore,
+            @NonNull Clock clock) {
         super(context);
         this.service = service;
-        this.accountManager = AccountManager.get(context);
+        this.tokenStore = tokenStore;
+        this.refreshCoordinator = new RefreshCoordinator<>(tokenStore, service, clock);
+    }
+
+    /**
+     * Create the default executor used to refresh tokens. It uses up to 4 threads that get released
+     * once idle, and queues up to 32 refreshes. Refreshes of the same account and token type are
+     * shared, so the queue only fills up with many accounts. Further refreshes get rejected and
+     * fail with {@link TokenRefreshError#ERROR_CODE_REMOTE_EXCEPTION}, without putting the account
+     * on hold like a network error would.
+     *
+     * @return a new executor
+     */
+    @NonNull
+    public static Executor createRefreshExecutor() {
+        final ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        MAX_REFRESH_THREADS,
+                        MAX_REFRESH_THREADS,
+                        REFRESH_THREAD_KEEP_ALIVE_SECONDS,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(MAX_QUEUED_REFRESHES),
+                        runnable -> new Thread(runnable, "OAuthAuthenticator-refresh"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     @Override
     public Bundle editProperties(
             @NonNull AccountAuthenticatorResponse response, @NonNull String accountType) {
-        log("editProperties for %s", accountType);
+        if (logger.isLoggable()) {
+            log("editProperties for %s", accountType);
+        }
         return null;
     }
 
@@ -74,12 +208,14 @@ public class OAuthAuthenticator extends AbstractAccountAuthenticator {
             @Nullable String[] requiredFeatures,
             @Nullable Bundle options)
             throws NetworkErrorException {
-        log(
-                "addAccount for %s as %s with features %s and options %s",
-                accountType,
-                authTokenType,
-                Arrays.toString(requiredFeatures),
-                BundleUtil.toString(options));
+        if (logger.isLoggable()) {
+            log(
+                    "addAccount for %s as %s with features %s and options %s",
+                    accountType,
+                    authTokenType,
+                    Arrays.toString(requiredFeatures),
+                    BundleUtil.toString(options));
+        }
 
         final Bundle bundle = new Bundle();
         final Intent intent = service.getLoginIntent();
@@ -97,7 +233,9 @@ public class OAuthAuthenticator extends AbstractAccountAuthenticator {
             @NonNull Account account,
             @Nullable Bundle options)
             throws NetworkErrorException {
-        log("confirmCredentials for %s with options %s", account, BundleUtil.toString(options));
+        if (logger.isLoggable()) {
+            log("confirmCredentials for %s with options %s", account, BundleUtil.toString(options));
+        }
         return null;
     }
 
@@ -108,55 +246,27 @@ public class OAuthAuthenticator extends AbstractAccountAuthenticator {
             @NonNull final String authTokenType,
             @Nullable final Bundle options)
             throws NetworkErrorException {
-        log(
-                "getAuthToken for %s as %s with options %s",
-                account, authTokenType, BundleUtil.toString(options));
-
-        if (isAnotherThreadHandlingIt(account, response)) return null;
-
-        final String authToken = accountManager.peekAuthToken(account, authTokenType);
-
-        if (TextUtils.isEmpty(authToken)) {
-            synchronized (this) {
-                // queue as well
-                isAnotherThreadHandlingIt(account, response);
-            }
-
-            final String refreshToken = accountManager.getPassword(account);
-            final CallbackListener listener = new CallbackListener(account, authTokenType, service);
-            listener.refresh(refreshToken);
-        } else {
-            final Bundle resultBundle = createResultBundle(account, authToken);
-            returnResultToQueuedResponses(account, (r) -> r.onResult(resultBundle));
-            return resultBundle;
+        if (logger.isLoggable()) {
+            log(
+                    "getAuthToken for %s as %s with options %s",
+                    account, authTokenType, BundleUtil.toString(options));
         }
 
-        // return result via response async
-        return null;
-    }
-
-    private synchronized boolean isAnotherThreadHandlingIt(
-            Account account, @NonNull AccountAuthenticatorResponse response) {
-
-        if (!activeLookups.containsKey(account)) {
-            activeLookups.put(account, new FetchingAuthModel());
-        }
-        final FetchingAuthModel authModel = activeLookups.get(account);
-
-        if (authModel.fetchingToken) {
-            // another thread is already working on it, register for callback
-            List<AccountAuthenticatorResponse> q = authModel.queue;
-            if (q == null) {
-                q = new ArrayList<>();
-                authModel.queue = q;
+        Tracing.beginSection("OAuthAuthenticator#getAuthToken");
+        try {
+            tokenStore.onAuthTokenRequested(account);
+            final String authToken =
+                    refreshCoordinator.getAccessToken(
+                            account, authTokenType, new ResponseListener(account, response));
+            if (authToken != null) {
+                return createResultBundle(account, authToken);
             }
-            q.add(response);
-            // we return null, the result will be sent with the `response`
-            return true;
+
+            // return result via response async
+            return null;
+        } finally {
+            Tracing.endSection();
         }
-        // we have to fetch the token, and return the result other threads
-        authModel.fetchingToken = true;
-        return false;
     }
 
     @NonNull
@@ -170,7 +280,9 @@ public class OAuthAuthenticator extends AbstractAccountAuthenticator {
 
     @Override
     public String getAuthTokenLabel(@NonNull String authTokenType) {
-        log("getAuthTokenLabel for %s", authTokenType);
+        if (logger.isLoggable()) {
+            log("getAuthTokenLabel for %s", authTokenType);
+        }
         return authTokenType;
     }
 
@@ -181,9 +293,11 @@ public class OAuthAuthenticator extends AbstractAccountAuthenticator {
             @Nullable String authTokenType,
             @Nullable Bundle options)
             throws NetworkErrorException {
-        log(
-                "updateCredentials for %s as %s with options %s",
-                account, authTokenType, BundleUtil.toString(options));
+        if (logger.isLoggable()) {
+            log(
+                    "updateCredentials for %s as %s with options %s",
+                    account, authTokenType, BundleUtil.toString(options));
+        }
         return null;
     }
 
@@ -193,99 +307,107 @@ public class OAuthAuthenticator extends AbstractAccountAuthenticator {
             @NonNull Account account,
             @NonNull String[] features)
             throws NetworkErrorException {
-        log("hasFeatures for %s and %s", account, Arrays.toString(features));
+        if (logger.isLoggable()) {
+            log("hasFeatures for %s and %s", account, Arrays.toString(features));
+        }
         return null;
     }
 
     public boolean isLoggingEnabled() {
-        return loggingEnabled;
+        return logger.isLoggable();
     }
 
+    /**
+     * Log to logcat. Use {@link #setLogger(AuthLogger)} to log elsewhere.
+     *
+     * @param loggingEnabled whether to log
+     */
     public void setLoggingEnabled(boolean loggingEnabled) {
-        this.loggingEnabled = loggingEnabled;
+        setLogger(loggingEnabled ? new LogcatLogger(TAG) : AuthLogger.NONE);
     }
 
-    private void log(String format, Object... args) {
-        if (loggingEnabled) {
-            Log.d(TAG, String.format(format, args));
-        }
+    @NonNull
+    public AuthLogger getLogger() {
+        return logger;
     }
 
-    private void returnResultToQueuedResponses(Account account, ResponseCallback callback) {
-        for (; ; ) {
-            List<AccountAuthenticatorResponse> q;
-            synchronized (this) {
-                final FetchingAuthModel authModel = activeLookups.get(account);
-                q = authModel.queue;
-                if (q == null) {
-                    authModel.fetchingToken = false;
-                    return;
-                }
-                authModel.queue = null;
-            }
-            for (AccountAuthenticatorResponse r : q) {
-                callback.returnResult(r);
-            }
-        }
+    /**
+     * Set the logger for requests to the authenticator and token refreshes. Log messages only get
+     * built if the logger is {@link AuthLogger#isLoggable() loggable}, and tokens get {@link
+     * AuthLogger#redact(String) redacted}.
+     *
+     * @param logger the logger, defaults to {@link AuthLogger#NONE}
+     */
+    public void setLogger(@NonNull AuthLogger logger) {
+        this.logger = logger;
+        refreshCoordinator.setLogger(logger);
     }
 
-    private interface ResponseCallback {
-        void returnResult(AccountAuthenticatorResponse response);
+    public long getRefreshWindowMillis() {
+        return refreshCoordinator.getRefreshWindowMillis();
     }
 
-    private static class FetchingAuthModel {
-        private boolean fetchingToken = false;
-        private List<AccountAuthenticatorResponse> queue;
+    /**
+     * Set how long before their expiry access tokens get refreshed. This only has an effect on
+     * tokens with a known {@link TokenPair#expiresAt expiry}.
+     *
+     * @param refreshWindowMillis the window in milliseconds, defaults to {@link
+     *     TokenExpiry#DEFAULT_REFRESH_WINDOW_MILLIS}
+     */
+    public void setRefreshWindowMillis(long refreshWindowMillis) {
+        refreshCoordinator.setRefreshWindowMillis(refreshWindowMillis);
     }
 
-    private class CallbackListener {
+    @NonNull
+    public AuthMetrics getMetrics() {
+        return refreshCoordinator.getMetrics();
+    }
+
+    /**
+     * Set the listener to report token lookups and refreshes to.
+     *
+     * @param metrics the listener, defaults to {@link AuthMetrics#NONE}
+     * @see CountingAuthMetrics
+     */
+    public void setMetrics(@NonNull AuthMetrics metrics) {
+        refreshCoordinator.setMetrics(metrics);
+    }
+
+    /**
+     * Print the state of token refreshes for diagnostics, see {@link
+     * RefreshCoordinator#dump(PrintWriter)}.
+     *
+     * @param writer the writer to print to
+     */
+    public void dump(@NonNull PrintWriter writer) {
+        refreshCoordinator.dump(writer);
+    }
+
+    private void log(String format, Object... args) {
+        logger.log(String.format(format, args));
+    }
+
+    private class ResponseListener implements RefreshCoordinator.Listener {
 
         private final Account account;
-        private final String authTokenType;
-        private AuthCallback service;
+        private final AccountAuthenticatorResponse response;
 
-        private CallbackListener(Account account, String authTokenType, AuthCallback service) {
+        private ResponseListener(Account account, AccountAuthenticatorResponse response) {
             this.account = account;
-            this.authTokenType = authTokenType;
-            this.service = service;
+            this.response = response;
         }
 
-        private void refresh(@Nullable String refreshToken) {
-            if (refreshToken == null) {
-                TokenRefreshError error =
-                        new TokenRefreshError(
-                                AccountManager.ERROR_CODE_CANCELED,
-                                "Invalid stored refresh token `null`");
-                onError(error);
-                return;
-            }
-            try {
-                final TokenPair result = service.authenticate(refreshToken);
-                onAuthenticated(result);
-            } catch (IOException e) {
-                onError(TokenRefreshError.NETWORK);
-            } catch (TokenRefreshError e) {
-                onError(e);
-            } catch (Exception e) {
-                final TokenRefreshError error = new TokenRefreshError(
-                        AccountManager.ERROR_CODE_UNSUPPORTED_OPERATION,
-                        e.getMessage()
-                );
-                onError(error);
-            }
+        @Override
+        public void onAccessToken(@NonNull String accessToken) {
+            response.onResult(createResultBundle(account, accessToken));
         }
 
-        private void onAuthenticated(@NonNull TokenPair tokenPair) {
-            accountManager.setPassword(account, tokenPair.refreshToken);
-            accountManager.setAuthToken(account, authTokenType, tokenPair.accessToken);
-
-            final Bundle bundle = createResultBundle(account, tokenPair.accessToken);
-            returnResultToQueuedResponses(account, (r) -> r.onResult(bundle));
-        }
-
-        private void onError(@NonNull TokenRefreshError error) {
-            returnResultToQueuedResponses(
-                    account, (r) -> r.onError(error.getCode(), error.getErrorMessage()));
+        @Override
+        public void onError(@NonNull TokenRefreshError error) {
+            if (logger.isLoggable()) {
+                log("getAuthToken for %s failed with %d", account, error.getCode());
+            }
+            response.onError(error.getCode(), error.getErrorMessage());
         }
     }
 }
@@ -0,0 +1,29 @@
+package com.davidmedenjak.auth;
+
+import android.os.Build;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RestrictTo;
+
+/**
+ * Marks sections for systrace / Perfetto with {@link Trace}, which is only available from API 18.
+ * Sections have to begin and end on the same thread.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY_GROUP)
+public final class Tracing {
+
+    private Tracing() {}
+
+    public static void beginSection(@NonNull String sectionName) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(sectionName);
+        }
+    }
+
+    public static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+}
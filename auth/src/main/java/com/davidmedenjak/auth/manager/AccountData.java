@@ -1,6 +1,13 @@
 package com.davidmedenjak.auth.manager;
 
 import android.os.Bundle;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
 
 /**
  * Used to store key value pairs with a users {@link android.accounts.Account}.
@@ -9,10 +16,16 @@ import android.os.Bundle;
  * AccountData.with("key", "value")
  *     .and("otherKey", "text");
  * </code></pre>
+ *
+ * <p>All entries get stored as a single user data value of the account, so that they can be written
+ * at once no matter how many there are.
  */
 public final class AccountData {
     public static final AccountData EMPTY = new AccountData();
 
+    /** The user data key of the encoded entries. */
+    static final String USER_DATA_KEY = "oauth-account.data";
+
     final Bundle bundle = new Bundle();
 
     private AccountData() {}
@@ -39,4 +52,72 @@ public final class AccountData {
         bundle.putString(key, value);
         return this;
     }
+
+    /**
+     * Add a new entry to the object, to be read with {@link AccountDataSnapshot#getLong(String,
+     * long)} or {@link AccountDataSnapshot#getInt(String, int)}.
+     *
+     * @param key the key to add
+     * @param value the value to add
+     * @return the AccountData object
+     */
+    public AccountData and(String key, long value) {
+        return and(key, String.valueOf(value));
+    }
+
+    /**
+     * Add a new entry to the object, to be read with {@link AccountDataSnapshot#getBoolean(String,
+     * boolean)}.
+     *
+     * @param key the key to add
+     * @param value the value to add
+     * @return the AccountData object
+     */
+    public AccountData and(String key, boolean value) {
+        return and(key, String.valueOf(value));
+    }
+
+    /**
+     * Encode entries as a single user data value.
+     *
+     * @param entries the entries, {@code null} values get dropped
+     * @return the encoded entries
+     */
+    @NonNull
+    static String encode(@NonNull Bundle entries) {
+        final JSONObject json = new JSONObject();
+        try {
+            for (String key : entries.keySet()) {
+                json.putOpt(key, entries.getString(key));
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Keys must not be null", e);
+        }
+        return json.toString();
+    }
+
+    /**
+     * Decode entries written with {@link #encode(Bundle)}.
+     *
+     * @param encoded the user data value, or {@code null} if there is none
+     * @return the entries, empty if {@code encoded} is null or malformed
+     */
+    @NonNull
+    static Bundle decode(@Nullable String encoded) {
+        final Bundle entries = new Bundle();
+        if (encoded == null) {
+            return entries;
+        }
+        try {
+            final JSONObject json = new JSONObject(encoded);
+            final Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                final String key = keys.next();
+                entries.putString(key, json.getString(key));
+            }
+        } catch (JSONException e) {
+            // treat corrupt data like missing data, the entries will be written again
+        }
+        return entries;
+    }
 }
@@ -0,0 +1,155 @@
+package com.davidmedenjak.auth.manager;
+
+import android.accounts.Account;
+import android.os.Bundle;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only, typed view of the {@link AccountData} of an account.
+ *
+ * <p>{@link OAuthAccountManager#getAccountData(Account)} keeps the view in memory until the data
+ * gets updated or the accounts on the device change, so reading it is cheap enough for hot paths
+ * like binding list items. Typed values get parsed only once.
+ */
+public final class AccountDataSnapshot {
+
+    /** Marks entries that were stored separately and turned out to be missing. */
+    private static final String MISSING = new String();
+
+    private final Bundle entries;
+    private final UserDataReader separateEntries;
+
+    private final ConcurrentHashMap<String, Object> parsed = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> separate = new ConcurrentHashMap<>();
+
+    AccountDataSnapshot(@NonNull Bundle entries, @NonNull UserDataReader separateEntries) {
+        this.entries = entries;
+        this.separateEntries = separateEntries;
+    }
+
+    /**
+     * @param key the key of the entry
+     * @return the value, or {@code null} if there is none
+     */
+    @Nullable
+    public String getString(@NonNull String key) {
+        final String value = entries.getString(key);
+        if (value != null) {
+            return value;
+        }
+        return getSeparateEntry(key);
+    }
+
+    /**
+     * @param key the key of the entry
+     * @param defaultValue the value to return if there is none
+     * @return the value, or {@code defaultValue} if there is none
+     */
+    @NonNull
+    public String getString(@NonNull String key, @NonNull String defaultValue) {
+        final String value = getString(key);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * @param key the key of the entry
+     * @param defaultValue the value to return if there is none or it is not a number
+     * @return the value, or {@code defaultValue}
+     */
+    public long getLong(@NonNull String key, long defaultValue) {
+        final Object cached = parsed.get(key);
+        if (cached instanceof Long) {
+            return (Long) cached;
+        }
+        final String value = getString(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final long result = Long.parseLong(value);
+            parsed.put(key, result);
+            return result;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key the key of the entry
+     * @param defaultValue the value to return if there is none or it is not a number
+     * @return the value, or {@code defaultValue}
+     */
+    public int getInt(@NonNull String key, int defaultValue) {
+        final Object cached = parsed.get(key);
+        if (cached instanceof Integer) {
+            return (Integer) cached;
+        }
+        final String value = getString(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final int result = Integer.parseInt(value);
+            parsed.put(key, result);
+            return result;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key the key of the entry
+     * @param defaultValue the value to return if there is none
+     * @return true if the value is {@code "true"}, ignoring case, or {@code defaultValue}
+     */
+    public boolean getBoolean(@NonNull String key, boolean defaultValue) {
+        final Object cached = parsed.get(key);
+        if (cached instanceof Boolean) {
+            return (Boolean) cached;
+        }
+        final String value = getString(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        final boolean result = Boolean.parseBoolean(value);
+        parsed.put(key, result);
+        return result;
+    }
+
+    /**
+     * @return the keys of all entries, except for ones stored before {@link AccountData} got
+     *     stored as a single value. The set can't be modified.
+     */
+    @NonNull
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /** @return a copy of the entries, to update them */
+    @NonNull
+    Bundle copyEntries() {
+        return new Bundle(entries);
+    }
+
+    /** Read entries stored under their own key once, and remember them. */
+    @Nullable
+    private String getSeparateEntry(@NonNull String key) {
+        String value = separate.get(key);
+        if (value == null) {
+            value = separateEntries.getUserData(key);
+            separate.put(key, value != null ? value : MISSING);
+        }
+        return value != MISSING ? value : null;
+    }
+
+    /** Reads user data stored under its own key. */
+    interface UserDataReader {
+        @Nullable
+        String getUserData(@NonNull String key);
+    }
+}
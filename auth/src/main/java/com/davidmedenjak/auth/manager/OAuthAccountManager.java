@@ -2,7 +2,9 @@ package com.davidmedenjak.auth.manager;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
+import android.accounts.AccountManagerFuture;
 import android.accounts.AuthenticatorException;
+import android.accounts.OnAccountsUpdateListener;
 import android.accounts.OperationCanceledException;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
@@ -14,32 +16,142 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 import com.davidmedenjak.auth.AccountAuthenticator;
+import com.davidmedenjak.auth.AccountAuthenticatorProvider;
+import com.davidmedenjak.auth.AuthMetrics;
+import com.davidmedenjak.auth.Clock;
+import com.davidmedenjak.auth.SingleFlight;
+import com.davidmedenjak.auth.TokenExpiry;
 import com.davidmedenjak.auth.TokenPair;
+import com.davidmedenjak.auth.Tracing;
+import com.davidmedenjak.auth.store.AccountManagerTokenStore;
+import com.davidmedenjak.auth.store.TokenChangeBroadcast;
+import com.davidmedenjak.auth.store.TokenStore;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
-
-/** A basic implementation to handle user login states. */
-public class OAuthAccountManager implements AccountAuthenticator {
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A basic implementation to handle user login states.
+ *
+ * <p>Access tokens are kept in memory once fetched, so that repeated calls to {@link
+ * #getAccessToken()} don't need to go through {@link AccountManager} every time. The cached token
+ * gets dropped when it is invalidated with {@link #getNewAccessToken(String)}, on login / logout,
+ * when its account gets removed, and when another process changes the tokens, see {@link
+ * #listenForTokenChanges(TokenChangeBroadcast)}.
+ *
+ * <p>The asynchronous variants {@link #getAccessToken(Callback)} and {@link
+ * #getNewAccessToken(String, Callback)} don't block the calling thread. Concurrent callers share a
+ * single lookup with {@link AccountManager}.
+ *
+ * <p>Tokens with a known {@link TokenPair#expiresAt expiry} get refreshed once they are about to
+ * expire. See {@link #setRefreshWindowMillis(long)}.
+ *
+ * <p>Tokens get stored with the {@link AccountManager} unless a different {@link TokenStore} is
+ * used.
+ *
+ * <p>All accounts of the account type are kept in an index that gets updated whenever the accounts
+ * on the device change, so looking them up with {@link #getAccounts()} or {@link
+ * #getAccount(String)} doesn't need to go through {@link AccountManager}. {@link
+ * #getAuthenticator(Account)} provides tokens for any of them, each with its own in-memory cache.
+ * Their {@link AccountData} is cached in memory as well, see {@link #getAccountData(Account)}.
+ * The methods of {@link AccountAuthenticator} implemented by this class use the account that was
+ * last {@link #login(String, TokenPair, AccountData) logged in}.
+ */
+public class OAuthAccountManager implements AccountAuthenticator, AccountAuthenticatorProvider {
 
     private static final String META_DATA_ACCOUNT_TYPE = "oauth-account.type";
     private final AccountManager accountManager;
+    private final TokenStore tokenStore;
+    private final Clock clock;
 
     private final String accountType;
-    private Account account;
+    /** The account used by the methods of {@link AccountAuthenticator}. */
+    private volatile AccountSession current;
+
+    private long refreshWindowMillis = TokenExpiry.DEFAULT_REFRESH_WINDOW_MILLIS;
+    private volatile AuthMetrics metrics = AuthMetrics.NONE;
+
+    /** Held while updating the account data, so that concurrent updates don't get lost. */
+    private final Object accountDataLock = new Object();
+
+    private final Object indexLock = new Object();
+    /** The accounts of {@link #accountType} by name. */
+    private final ConcurrentHashMap<String, AccountSession> sessions = new ConcurrentHashMap<>();
+    /** The accounts in the order they were returned by the {@link AccountManager}. */
+    private volatile Account[] accounts = new Account[0];
+
+    private final OnAccountsUpdateListener accountsUpdateListener = this::updateIndex;
+    private final TokenChangeBroadcast.Listener tokenChangeListener = this::onTokensChanged;
 
     public OAuthAccountManager(
             @NonNull String accountType, @NonNull AccountManager accountManager) {
+        this(accountType, accountManager, new AccountManagerTokenStore(accountManager));
+    }
+
+    /**
+     * Create a new account manager that keeps tokens in {@code tokenStore}. Use the same store as
+     * the {@link com.davidmedenjak.auth.AuthenticatorService#getTokenStore() AuthenticatorService}.
+     *
+     * @param accountType the type of the accounts to manage
+     * @param accountManager the framework account manager
+     * @param tokenStore the store to read and write tokens
+     */
+    public OAuthAccountManager(
+            @NonNull String accountType,
+            @NonNull AccountManager accountManager,
+            @NonNull TokenStore tokenStore) {
+        this(accountType, accountManager, tokenStore, Clock.SYSTEM);
+    }
+
+    /**
+     * Create a new account manager that keeps tokens in {@code tokenStore} and checks their expiry
+     * against {@code clock}.
+     *
+     * @param accountType the type of the accounts to manage
+     * @param accountManager the framework account manager
+     * @param tokenStore the store to read and write tokens
+     * @param clock the time source for token expiry
+     */
+    public OAuthAccountManager(
+            @NonNull String accountType,
+            @NonNull AccountManager accountManager,
+            @NonNull TokenStore tokenStore,
+            @NonNull Clock clock) {
         this.accountType = accountType;
         this.accountManager = accountManager;
+        this.tokenStore = tokenStore;
+        this.clock = clock;
 
-        final Account[] accounts = accountManager.getAccountsByType(accountType);
+        updateIndex(accountManager.getAccountsByType(accountType));
+        final Account[] accounts = this.accounts;
         if (accounts.length > 0) {
-            account = accounts[0];
+            current = sessions.get(accounts[0].name);
         }
+
+        // tokens might get changed from outside (e.g. another process or the system settings)
+        accountManager.addOnAccountsUpdatedListener(accountsUpdateListener, null, false);
     }
 
     public static OAuthAccountManager fromContext(@NonNull Context context) {
+        return fromContext(context, new AccountManagerTokenStore(AccountManager.get(context)));
+    }
+
+    /**
+     * Create a new account manager for the account type declared in the manifest.
+     *
+     * @param context the context
+     * @param tokenStore the store to read and write tokens
+     * @return the account manager
+     */
+    public static OAuthAccountManager fromContext(
+            @NonNull Context context, @NonNull TokenStore tokenStore) {
         PackageManager packageManager = context.getPackageManager();
         String packageName = context.getPackageName();
         try {
@@ -58,7 +170,7 @@ public class OAuthAccountManager implements AccountAuthenticator {
                 throw new IllegalArgumentException(errorMessage);
             }
 
-            return new OAuthAccountManager(accountType, AccountManager.get(context));
+            return new OAuthAccountManager(accountType, AccountManager.get(context), tokenStore);
         } catch (PackageManager.NameNotFoundException e) {
             throw new IllegalStateException("application doesn't exist?!", e);
         }
@@ -71,74 +183,227 @@ public class OAuthAccountManager implements AccountAuthenticator {
 
     public void login(
             @NonNull String name, @NonNull TokenPair token, @NonNull AccountData accountData) {
-        account = new Account(name, accountType);
+        final Account account = new Account(name, accountType);
 
-        final String refreshToken = token.refreshToken;
-        if (!accountManager.addAccountExplicitly(account, refreshToken, accountData.bundle)) {
-            // account already exists, update refresh token
-            accountManager.setPassword(account, refreshToken);
+        final Bundle userData = new Bundle();
+        userData.putString(AccountData.USER_DATA_KEY, AccountData.encode(accountData.bundle));
+
+        Tracing.beginSection("OAuthAccountManager#login");
+        try {
+            // an existing account only gets its tokens updated
+            tokenStore.addAccount(accountManager, account, userData, TokenType.BEARER, token);
+        } finally {
+            Tracing.endSection();
         }
 
-        final String accessToken = token.accessToken;
-        accountManager.setAuthToken(account, TokenType.BEARER, accessToken);
+        final AccountSession session = addToIndex(account);
+        session.invalidateCachedAccessToken();
+        session.invalidateAccountData();
+        session.cacheAccessToken(session.cacheGeneration, token.accessToken, token.expiresAt);
+        current = session;
     }
 
     public void logout() {
-        if (account == null) return;
+        final AccountSession session = current;
+        if (session == null) return;
+        final Account account = session.account;
+
+        session.invalidateCachedAccessToken();
+        removeFromIndex(account);
+        tokenStore.removeTokens(account);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1) {
             accountManager.removeAccount(account, null, null, null);
         } else {
             accountManager.removeAccount(account, null, null);
         }
-        account = null;
+        current = null;
     }
 
     public boolean isLoggedIn() {
-        return account != null;
+        return current != null;
     }
 
     @Nullable
     public Account getAccount() {
-        return account;
+        final AccountSession session = current;
+        return session != null ? session.account : null;
     }
 
-    public void setAccountData(@NonNull String key, @Nullable String value) {
-        if (!isLoggedIn()) return;
+    /**
+     * Get all accounts of the account type from the in-memory index, without going through the
+     * {@link AccountManager}.
+     *
+     * @return the accounts in the order they were returned by {@link
+     *     AccountManager#getAccountsByType(String)}
+     */
+    @NonNull
+    public List<Account> getAccounts() {
+        return Collections.unmodifiableList(Arrays.asList(accounts));
+    }
 
-        accountManager.setUserData(account, key, value);
+    /**
+     * Look up an account by name from the in-memory index, without going through the {@link
+     * AccountManager}.
+     *
+     * @param name the name of the account
+     * @return the account, or {@code null} if there is no account with this name
+     */
+    @Nullable
+    public Account getAccount(@NonNull String name) {
+        final AccountSession session = sessions.get(name);
+        return session != null ? session.account : null;
+    }
+
+    /**
+     * Get an authenticator that provides tokens for {@code account}, independent of the account
+     * that is currently logged in. Every account keeps its own in-memory token cache.
+     *
+     * @param account an account of this manager's account type
+     * @return the authenticator for {@code account}
+     * @throws IllegalArgumentException if there is no such account
+     */
+    @NonNull
+    public AccountAuthenticator getAuthenticator(@NonNull Account account) {
+        if (!accountType.equals(account.type)) {
+            throw new IllegalArgumentException(
+                    "Account type " + account.type + " does not match " + accountType);
+        }
+        final AccountSession session = findSession(account);
+        if (session == null) {
+            throw new IllegalArgumentException("Unknown account " + account.name);
+        }
+        return session;
+    }
+
+    /**
+     * Get an authenticator that provides tokens for the account named {@code accountName}, e.g.
+     * for requests that select their account with {@code com.davidmedenjak.auth.okhttp.AccountTag}.
+     *
+     * @param accountName the name of an account of this manager's account type
+     * @return the authenticator for the account
+     * @throws IllegalArgumentException if there is no account named {@code accountName}
+     * @see #getAuthenticator(Account)
+     */
+    @NonNull
+    @Override
+    public AccountAuthenticator getAuthenticator(@NonNull String accountName) {
+        final AccountSession session = sessions.get(accountName);
+        if (session != null) {
+            return session;
+        }
+        final AccountSession added = findSession(new Account(accountName, accountType));
+        if (added == null) {
+            throw new IllegalArgumentException("Unknown account " + accountName);
+        }
+        return added;
+    }
+
+    public void setAccountData(@NonNull String key, @Nullable String value) {
+        setAccountData(AccountData.with(key, value));
     }
 
     public void setAccountData(@NonNull AccountData accountData) {
-        if (!isLoggedIn()) return;
+        final Account account = getAccount();
+        if (account == null) return;
 
-        Bundle bundle = accountData.bundle;
-        Set<String> keySet = bundle.keySet();
-        for (String key : keySet) {
-            accountManager.setUserData(account, key, bundle.getString(key));
+        setAccountData(account, accountData);
+    }
+
+    /**
+     * Update the data of an account. All entries get written at once, so this takes a single call
+     * to the {@link AccountManager} no matter how many entries there are, and one more to read the
+     * current entries if they are not {@link #getAccountData(Account) cached} yet.
+     *
+     * @param account the account
+     * @param accountData the entries to update, {@code null} values remove an entry
+     */
+    public void setAccountData(@NonNull Account account, @NonNull AccountData accountData) {
+        final AccountSession session = findOrCreateSession(account);
+        synchronized (accountDataLock) {
+            final AccountDataSnapshot cached = session.cachedAccountData;
+            final Bundle entries =
+                    cached != null
+                            ? cached.copyEntries()
+                            : AccountData.decode(
+                                    accountManager.getUserData(
+                                            account, AccountData.USER_DATA_KEY));
+            final Bundle changes = accountData.bundle;
+            for (String key : changes.keySet()) {
+                final String value = changes.getString(key);
+                if (value != null) {
+                    entries.putString(key, value);
+                } else {
+                    entries.remove(key);
+                    // entries written before they were stored together
+                    accountManager.setUserData(account, key, null);
+                }
+            }
+            accountManager.setUserData(
+                    account, AccountData.USER_DATA_KEY, AccountData.encode(entries));
+            session.cacheAccountData(newSnapshot(account, entries));
         }
     }
 
     @NonNull
     public String getAccountData(@NonNull String key) {
-        if (!isLoggedIn()) return "";
+        final Account account = getAccount();
+        if (account == null) return "";
 
-        String data = accountManager.getUserData(account, key);
+        return getAccountData(account, key);
+    }
 
-        if (data == null) return "";
-        return data;
+    /**
+     * Read an entry of the {@link AccountData} of any account.
+     *
+     * @param account the account
+     * @param key the key of the entry
+     * @return the value, or an empty string if there is none
+     * @see #getAccountData(Account)
+     */
+    @NonNull
+    public String getAccountData(@NonNull Account account, @NonNull String key) {
+        return getAccountData(account).getString(key, "");
+    }
+
+    /**
+     * Get all {@link AccountData} of an account. The data is kept in memory until it gets updated
+     * with {@link #setAccountData(Account, AccountData)} or the accounts on the device change, so
+     * only the first call after that goes through the {@link AccountManager}.
+     *
+     * @param account the account
+     * @return a typed view of the account data
+     */
+    @NonNull
+    public AccountDataSnapshot getAccountData(@NonNull Account account) {
+        final AccountSession session = findOrCreateSession(account);
+        final AccountDataSnapshot cached = session.cachedAccountData;
+        if (cached != null) {
+            return cached;
+        }
+
+        final int generation = session.accountDataGeneration;
+        final Bundle entries =
+                AccountData.decode(accountManager.getUserData(account, AccountData.USER_DATA_KEY));
+        final AccountDataSnapshot snapshot = newSnapshot(account, entries);
+        session.cacheAccountData(generation, snapshot);
+        return snapshot;
     }
 
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     public void renameAccount(@NonNull String username) {
-        if (!isLoggedIn()) return;
+        final AccountSession session = current;
+        if (session == null) return;
 
+        session.invalidateCachedAccessToken();
         accountManager.renameAccount(
-                account,
+                session.account,
                 username,
                 future -> {
                     try {
-                        account = future.getResult();
+                        final Account renamed = future.getResult();
+                        removeFromIndex(session.account);
+                        current = addToIndex(renamed);
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
@@ -149,22 +414,464 @@ public class OAuthAccountManager implements AccountAuthenticator {
     @Override
     @NonNull
     public String getAccessToken() throws IOException {
-        if (!isLoggedIn()) return "";
+        final AccountSession session = current;
+        if (session == null) return "";
 
-        try {
-            return accountManager.blockingGetAuthToken(account, TokenType.BEARER, false);
-        } catch (OperationCanceledException | AuthenticatorException e) {
-            e.printStackTrace();
-        }
-        return "";
+        return session.getAccessToken();
     }
 
     @Override
     @NonNull
     public String getNewAccessToken(@Nullable String invalidAccessToken) throws IOException {
-        if (!isLoggedIn()) return "";
+        final AccountSession session = current;
+        if (session == null) return "";
+
+        return session.getNewAccessToken(invalidAccessToken);
+    }
+
+    @Override
+    public void getAccessToken(@NonNull Callback callback) {
+        final AccountSession session = current;
+        if (session == null) {
+            callback.onAccessToken("");
+            return;
+        }
+
+        session.getAccessToken(callback);
+    }
+
+    @Override
+    public void getNewAccessToken(@Nullable String invalidAccessToken, @NonNull Callback callback) {
+        final AccountSession session = current;
+        if (session == null) {
+            callback.onAccessToken("");
+            return;
+        }
+
+        session.getNewAccessToken(invalidAccessToken, callback);
+    }
+
+    public long getRefreshWindowMillis() {
+        return refreshWindowMillis;
+    }
+
+    /**
+     * Set how long before their expiry access tokens get refreshed. This only has an effect on
+     * tokens with a known {@link TokenPair#expiresAt expiry}.
+     *
+     * @param refreshWindowMillis the window in milliseconds, defaults to {@link
+     *     TokenExpiry#DEFAULT_REFRESH_WINDOW_MILLIS}
+     */
+    public void setRefreshWindowMillis(long refreshWindowMillis) {
+        this.refreshWindowMillis = refreshWindowMillis;
+    }
+
+    @NonNull
+    public AuthMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the listener to report lookups of the in-memory token cache to. Refreshes get reported
+     * by the {@link com.davidmedenjak.auth.OAuthAuthenticator OAuthAuthenticator}.
+     *
+     * @param metrics the listener, defaults to {@link AuthMetrics#NONE}
+     */
+    public void setMetrics(@NonNull AuthMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Drop the cached access token of accounts whose tokens were changed by a {@link
+     * com.davidmedenjak.auth.store.CachingTokenStore CachingTokenStore} using {@code broadcast} in
+     * another process. Use this if the {@link com.davidmedenjak.auth.AuthenticatorService
+     * AuthenticatorService} runs in a different process, so that this manager doesn't keep using
+     * access tokens that it refreshed or invalidated.
+     *
+     * @param broadcast the broadcast passed to the token stores of all processes
+     */
+    public void listenForTokenChanges(@NonNull TokenChangeBroadcast broadcast) {
+        broadcast.register(tokenChangeListener);
+    }
+
+    private void onTokensChanged(@NonNull Account account) {
+        if (!accountType.equals(account.type)) return;
+
+        final AccountSession session = sessions.get(account.name);
+        if (session != null) {
+            session.invalidateCachedAccessToken();
+        }
+    }
+
+    /**
+     * Replace the index with the accounts of {@link #accountType} in {@code allAccounts}. This gets
+     * called for changes of any account on the device, so only the caches of accounts that were
+     * added or removed get dropped. Tokens changed by other processes are picked up with {@link
+     * #listenForTokenChanges(TokenChangeBroadcast)}.
+     */
+    private void updateIndex(@NonNull Account[] allAccounts) {
+        synchronized (indexLock) {
+            final List<Account> accounts = new ArrayList<>();
+            final Set<String> names = new HashSet<>();
+            for (Account account : allAccounts) {
+                if (!accountType.equals(account.type)) continue;
+                accounts.add(account);
+                names.add(account.name);
+
+                if (!sessions.containsKey(account.name)) {
+                    // the current session gets reused and might be left over from before
+                    final AccountSession added = newSession(account);
+                    added.invalidateCachedAccessToken();
+                    added.invalidateAccountData();
+                    sessions.put(account.name, added);
+                }
+            }
+            final Iterator<AccountSession> iterator = sessions.values().iterator();
+            while (iterator.hasNext()) {
+                final AccountSession session = iterator.next();
+                if (!names.contains(session.account.name)) {
+                    // its authenticator might still be in use
+                    session.invalidateCachedAccessToken();
+                    session.invalidateAccountData();
+                    iterator.remove();
+                }
+            }
+            this.accounts = accounts.toArray(new Account[0]);
+        }
+    }
+
+    /**
+     * Look up the session of {@code account}. The index might not have caught up with an account
+     * that was just added, so accounts that are not indexed yet get looked up with the {@link
+     * AccountManager}.
+     *
+     * @return the session, or {@code null} if there is no such account
+     */
+    @Nullable
+    private AccountSession findSession(@NonNull Account account) {
+        final AccountSession session = sessions.get(account.name);
+        if (session != null && session.account.equals(account)) {
+            return session;
+        }
+        for (Account existing : accountManager.getAccountsByType(accountType)) {
+            if (existing.equals(account)) {
+                return addToIndex(account);
+            }
+        }
+        return null;
+    }
+
+    /** @return the session of {@code account}, or one that doesn't get indexed if it is unknown */
+    @NonNull
+    private AccountSession findOrCreateSession(@NonNull Account account) {
+        final AccountSession session = findSession(account);
+        return session != null ? session : new AccountSession(account);
+    }
+
+    /** Only call this for accounts that exist, e.g. after they were added. */
+    @NonNull
+    private AccountSession addToIndex(@NonNull Account account) {
+        synchronized (indexLock) {
+            final AccountSession session = sessions.get(account.name);
+            if (session != null) {
+                return session;
+            }
+            final AccountSession added = newSession(account);
+            sessions.put(account.name, added);
+
+            final Account[] accounts = Arrays.copyOf(this.accounts, this.accounts.length + 1);
+            accounts[accounts.length - 1] = account;
+            this.accounts = accounts;
+            return added;
+        }
+    }
+
+    private void removeFromIndex(@NonNull Account account) {
+        synchronized (indexLock) {
+            if (sessions.remove(account.name) == null) return;
+
+            final List<Account> accounts = new ArrayList<>(Arrays.asList(this.accounts));
+            accounts.remove(account);
+            this.accounts = accounts.toArray(new Account[0]);
+        }
+    }
+
+    /** Keep using the session of the current account, so that it shares its cache. */
+    @NonNull
+    private AccountSession newSession(@NonNull Account account) {
+        final AccountSession session = current;
+        if (session != null && session.account.equals(account)) {
+            return session;
+        }
+        return new AccountSession(account);
+    }
+
+    @NonNull
+    private AccountDataSnapshot newSnapshot(@NonNull Account account, @NonNull Bundle entries) {
+        return new AccountDataSnapshot(entries, key -> accountManager.getUserData(account, key));
+    }
+
+    private long readExpiry(@NonNull Account account) {
+        return tokenStore.getExpiresAt(account, TokenType.BEARER);
+    }
+
+    /** Provides the tokens of a single account and keeps them cached in memory. */
+    private final class AccountSession implements AccountAuthenticator {
+
+        private final Account account;
+
+        private final Object cacheLock = new Object();
+        /** Held while invalidating a token with the store, without blocking the readers. */
+        private final Object invalidationLock = new Object();
+        private volatile CachedToken cachedAccessToken;
+        /** The last token cached, kept after invalidations to know when it was obtained. */
+        private volatile CachedToken lastAccessToken;
+        /** Incremented with every invalidation so that lookups started earlier don't get cached. */
+        private volatile int cacheGeneration;
+        /** The last token invalidated, so that concurrent callers only invalidate it once. */
+        private String lastInvalidatedToken;
+
+        /** Pending asynchronous lookups by the cache generation they were started with. */
+        private final SingleFlight<Integer, Callback> pendingLookups = new SingleFlight<>();
+
+        private volatile AccountDataSnapshot cachedAccountData;
+        /** Incremented with every update so that reads started earlier don't get cached. */
+        private volatile int accountDataGeneration;
+
+        private AccountSession(@NonNull Account account) {
+            this.account = account;
+        }
+
+        @Override
+        @NonNull
+        public String getAccessToken() throws IOException {
+            final CachedToken cachedToken = cachedAccessToken;
+            if (cachedToken != null) {
+                if (!isExpiring(cachedToken.accessToken, cachedToken.expiresAt)) {
+                    metrics.onAccessTokenLookup(true);
+                    return cachedToken.accessToken;
+                }
+                return getNewAccessToken(cachedToken.accessToken);
+            }
+            metrics.onAccessTokenLookup(false);
+
+            final int generation = cacheGeneration;
+            Tracing.beginSection("OAuthAccountManager#getAccessToken");
+            try {
+                String accessToken =
+                        accountManager.blockingGetAuthToken(account, TokenType.BEARER, false);
+                long expiresAt = readExpiry(account);
+
+                if (accessToken != null && isExpiring(accessToken, expiresAt)) {
+                    // the framework still had the old token stored, force a refresh
+                    tokenStore.invalidateAccessToken(account, accessToken);
+                    accessToken =
+                            accountManager.blockingGetAuthToken(account, TokenType.BEARER, false);
+                    expiresAt = readExpiry(account);
+                }
+
+                cacheAccessToken(generation, accessToken, expiresAt);
+                return accessToken;
+            } catch (OperationCanceledException | AuthenticatorException e) {
+                e.printStackTrace();
+            } finally {
+                Tracing.endSection();
+            }
+            return "";
+        }
+
+        @Override
+        @NonNull
+        public String getNewAccessToken(@Nullable String invalidAccessToken) throws IOException {
+            final String replacedToken = invalidateAccessToken(invalidAccessToken);
+            if (replacedToken != null) {
+                return replacedToken;
+            }
+            return getAccessToken();
+        }
+
+        @Override
+        public void getAccessToken(@NonNull Callback callback) {
+            final CachedToken cachedToken = cachedAccessToken;
+            if (cachedToken != null) {
+                if (!isExpiring(cachedToken.accessToken, cachedToken.expiresAt)) {
+                    metrics.onAccessTokenLookup(true);
+                    callback.onAccessToken(cachedToken.accessToken);
+                } else {
+                    getNewAccessToken(cachedToken.accessToken, callback);
+                }
+                return;
+            }
+            metrics.onAccessTokenLookup(false);
 
-        accountManager.invalidateAuthToken(account.type, invalidAccessToken);
-        return getAccessToken();
+            final int generation = cacheGeneration;
+            if (pendingLookups.startOrJoin(generation, callback)) {
+                pendingLookups.join(generation, callback);
+                requestAuthToken(generation, true);
+            }
+        }
+
+        @Override
+        public void getNewAccessToken(
+                @Nullable String invalidAccessToken, @NonNull Callback callback) {
+            final String replacedToken = invalidateAccessToken(invalidAccessToken);
+            if (replacedToken != null) {
+                callback.onAccessToken(replacedToken);
+            } else {
+                getAccessToken(callback);
+            }
+        }
+
+        /**
+         * Invalidate {@code invalidAccessToken} unless it was already replaced or invalidated by
+         * another caller. This way a lot of requests failing with the same token at once only
+         * result in a single invalidation.
+         *
+         * @return the token that already replaced {@code invalidAccessToken}, or {@code null} if
+         *     the token has to be fetched again
+         */
+        @Nullable
+        private String invalidateAccessToken(@Nullable String invalidAccessToken) {
+            // callers with the same token wait until it is gone from the store, readers don't
+            synchronized (invalidationLock) {
+                synchronized (cacheLock) {
+                    final CachedToken cachedToken = cachedAccessToken;
+                    if (cachedToken != null
+                            && !cachedToken.accessToken.equals(invalidAccessToken)) {
+                        return cachedToken.accessToken;
+                    }
+                    if (invalidAccessToken != null
+                            && invalidAccessToken.equals(lastInvalidatedToken)) {
+                        return null;
+                    }
+                    lastInvalidatedToken = invalidAccessToken;
+                    invalidateCachedAccessToken();
+                }
+
+                if (invalidAccessToken != null) {
+                    tokenStore.invalidateAccessToken(account, invalidAccessToken);
+                    // lookups started in the meantime might have read the invalid token
+                    invalidateCachedAccessToken();
+                }
+                return null;
+            }
+        }
+
+        private void requestAuthToken(int generation, boolean refreshIfExpiring) {
+            accountManager.getAuthToken(
+                    account,
+                    TokenType.BEARER,
+                    null,
+                    false,
+                    future -> onAuthTokenResult(generation, refreshIfExpiring, future),
+                    null);
+        }
+
+        private void onAuthTokenResult(
+                int generation,
+                boolean refreshIfExpiring,
+                @NonNull AccountManagerFuture<Bundle> future) {
+            final String accessToken;
+            try {
+                accessToken = future.getResult().getString(AccountManager.KEY_AUTHTOKEN);
+            } catch (IOException e) {
+                pendingLookups.complete(generation, (callback) -> callback.onError(e));
+                return;
+            } catch (OperationCanceledException | AuthenticatorException e) {
+                e.printStackTrace();
+                pendingLookups.complete(generation, (callback) -> callback.onAccessToken(""));
+                return;
+            }
+
+            final long expiresAt = readExpiry(account);
+            if (accessToken != null && refreshIfExpiring && isExpiring(accessToken, expiresAt)) {
+                // the framework still had the old token stored, force a refresh
+                tokenStore.invalidateAccessToken(account, accessToken);
+                requestAuthToken(generation, false);
+                return;
+            }
+
+            cacheAccessToken(generation, accessToken, expiresAt);
+            final String result = accessToken != null ? accessToken : "";
+            pendingLookups.complete(generation, (callback) -> callback.onAccessToken(result));
+        }
+
+        private void cacheAccessToken(
+                int generation, @Nullable String accessToken, long expiresAt) {
+            if (accessToken == null) return;
+
+            synchronized (cacheLock) {
+                // only cache the token if it wasn't invalidated while we were fetching it
+                if (generation == cacheGeneration) {
+                    cachedAccessToken =
+                            new CachedToken(accessToken, expiresAt, obtainedAt(accessToken));
+                    lastAccessToken = cachedAccessToken;
+                    // the server might hand out a token again, it has to be invalidated again
+                    lastInvalidatedToken = null;
+                }
+            }
+        }
+
+        /**
+         * Check whether a token should be refreshed. Tokens that weren't seen before count as just
+         * obtained, so the refresh window is capped at half of their remaining lifetime and a
+         * freshly fetched token is only refreshed again right away if it already expired.
+         */
+        private boolean isExpiring(@NonNull String accessToken, long expiresAt) {
+            return TokenExpiry.isExpiring(
+                    expiresAt,
+                    obtainedAt(accessToken),
+                    clock.currentTimeMillis(),
+                    refreshWindowMillis);
+        }
+
+        private long obtainedAt(@NonNull String accessToken) {
+            final CachedToken lastToken = lastAccessToken;
+            return lastToken != null && lastToken.accessToken.equals(accessToken)
+                    ? lastToken.obtainedAt
+                    : clock.currentTimeMillis();
+        }
+
+        private void invalidateCachedAccessToken() {
+            synchronized (cacheLock) {
+                cacheGeneration++;
+                cachedAccessToken = null;
+            }
+        }
+
+        private void cacheAccountData(int generation, @NonNull AccountDataSnapshot snapshot) {
+            synchronized (cacheLock) {
+                // only cache the data if it wasn't updated while we were reading it
+                if (generation == accountDataGeneration) {
+                    cachedAccountData = snapshot;
+                }
+            }
+        }
+
+        private void cacheAccountData(@NonNull AccountDataSnapshot snapshot) {
+            synchronized (cacheLock) {
+                accountDataGeneration++;
+                cachedAccountData = snapshot;
+            }
+        }
+
+        private void invalidateAccountData() {
+            synchronized (cacheLock) {
+                accountDataGeneration++;
+                cachedAccountData = null;
+            }
+        }
+    }
+
+    private static final class CachedToken {
+        private final String accessToken;
+        private final long expiresAt;
+        private final long obtainedAt;
+
+        private CachedToken(@NonNull String accessToken, long expiresAt, long obtainedAt) {
+            this.accessToken = accessToken;
+            this.expiresAt = expiresAt;
+            this.obtainedAt = obtainedAt;
+        }
     }
 }
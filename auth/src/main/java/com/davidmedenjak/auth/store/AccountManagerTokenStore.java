@@ -0,0 +1,91 @@
+package com.davidmedenjak.auth.store;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davidmedenjak.auth.TokenExpiry;
+import com.davidmedenjak.auth.TokenPair;
+
+/**
+ * Stores tokens with the {@link AccountManager}: refresh tokens as the password of the account,
+ * access tokens as auth tokens and their expiry as user data.
+ *
+ * <p>This is the default store.
+ */
+public class AccountManagerTokenStore implements TokenStore {
+
+    private final AccountManager accountManager;
+
+    public AccountManagerTokenStore(@NonNull AccountManager accountManager) {
+        this.accountManager = accountManager;
+    }
+
+    @Nullable
+    @Override
+    public String getRefreshToken(@NonNull Account account) {
+        return accountManager.getPassword(account);
+    }
+
+    @Nullable
+    @Override
+    public String peekAccessToken(@NonNull Account account, @NonNull String authTokenType) {
+        return accountManager.peekAuthToken(account, authTokenType);
+    }
+
+    @Override
+    public long getExpiresAt(@NonNull Account account, @NonNull String authTokenType) {
+        final String key = TokenExpiry.userDataKey(authTokenType);
+        return TokenExpiry.parse(accountManager.getUserData(account, key));
+    }
+
+    @Override
+    public void storeTokens(
+            @NonNull Account account, @NonNull String authTokenType, @NonNull TokenPair tokenPair) {
+        accountManager.setPassword(account, tokenPair.refreshToken);
+        // store the expiry first so that it is available once the new token can be read
+        accountManager.setUserData(
+                account,
+                TokenExpiry.userDataKey(authTokenType),
+                TokenExpiry.format(tokenPair.expiresAt));
+        accountManager.setAuthToken(account, authTokenType, tokenPair.accessToken);
+    }
+
+    /**
+     * Add the account with the refresh token as its password and the expiry in its user data, so
+     * that a new account only takes two calls to the {@link AccountManager}.
+     */
+    @Override
+    public boolean addAccount(
+            @NonNull AccountManager accountManager,
+            @NonNull Account account,
+            @NonNull Bundle userData,
+            @NonNull String authTokenType,
+            @NonNull TokenPair tokenPair) {
+        final Bundle data = new Bundle(userData);
+        final String expiresAt = TokenExpiry.format(tokenPair.expiresAt);
+        if (expiresAt != null) {
+            data.putString(TokenExpiry.userDataKey(authTokenType), expiresAt);
+        }
+        if (!accountManager.addAccountExplicitly(account, tokenPair.refreshToken, data)) {
+            // an existing account only gets its tokens updated
+            storeTokens(account, authTokenType, tokenPair);
+            return false;
+        }
+        accountManager.setAuthToken(account, authTokenType, tokenPair.accessToken);
+        return true;
+    }
+
+    @Override
+    public void invalidateAccessToken(@NonNull Account account, @NonNull String accessToken) {
+        accountManager.invalidateAuthToken(account.type, accessToken);
+    }
+
+    @Override
+    public void removeTokens(@NonNull Account account) {
+        // removed along with the account
+    }
+}
@@ -0,0 +1,294 @@
+package com.davidmedenjak.auth.store;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.accounts.OnAccountsUpdateListener;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davidmedenjak.auth.TokenPair;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the tokens of the most recently used accounts in memory in front of another store, so that
+ * looking them up doesn't need to read them from storage every time. With the default {@link
+ * AccountManagerTokenStore} every read saves a call to the {@link AccountManager}.
+ *
+ * <p>Writes go to the other store right away and update the cached tokens. Tokens that are not
+ * cached yet get read from the other store once, missing tokens get read again every time. When
+ * the {@link com.davidmedenjak.auth.OAuthAuthenticator OAuthAuthenticator} is asked for a token,
+ * the tokens of the account always get read from the other store again.
+ *
+ * <pre>{@code
+ * TokenStore store =
+ *         new CachingTokenStore(accountManager, new AccountManagerTokenStore(accountManager));
+ * }</pre>
+ *
+ * <p>Use a single instance for both the {@link com.davidmedenjak.auth.AuthenticatorService
+ * AuthenticatorService} and the {@link com.davidmedenjak.auth.manager.OAuthAccountManager
+ * OAuthAccountManager}, so that tokens invalidated by one of them don't get served by the other.
+ * Tokens changed directly with the {@link AccountManager} don't get noticed, except for removed
+ * accounts.
+ *
+ * <p>If they run in different processes, pass a {@link TokenChangeBroadcast} to the store of every
+ * process. The store then doesn't keep any tokens in memory, since another process might have
+ * rotated them before its broadcast arrives, and only tells the other processes about its changes
+ * so that their {@link com.davidmedenjak.auth.manager.OAuthAccountManager OAuthAccountManager}
+ * drops its tokens.
+ */
+public class CachingTokenStore implements TokenStore, OnAccountsUpdateListener {
+
+    /** The default number of accounts to keep the tokens of. */
+    public static final int DEFAULT_MAX_ACCOUNTS = 16;
+
+    private final TokenStore store;
+    private final Map<Account, CachedTokens> cache;
+    @Nullable private final TokenChangeBroadcast broadcast;
+
+    /** Incremented with every write so that reads started earlier don't get cached. */
+    private int writes;
+
+    /**
+     * @param accountManager to drop the tokens of removed accounts
+     * @param store the store to read and write tokens
+     */
+    public CachingTokenStore(@NonNull AccountManager accountManager, @NonNull TokenStore store) {
+        this(accountManager, store, DEFAULT_MAX_ACCOUNTS);
+    }
+
+    /**
+     * @param accountManager to drop the tokens of removed accounts
+     * @param store the store to read and write tokens
+     * @param maxAccounts the number of accounts to keep the tokens of, the least recently used
+     *     get dropped first
+     */
+    public CachingTokenStore(
+            @NonNull AccountManager accountManager, @NonNull TokenStore store, int maxAccounts) {
+        this(accountManager, store, maxAccounts, null);
+    }
+
+    /**
+     * @param accountManager to drop the tokens of removed accounts
+     * @param store the store to read and write tokens
+     * @param maxAccounts the number of accounts to keep the tokens of, the least recently used
+     *     get dropped first
+     * @param broadcast to tell other processes about written tokens instead of keeping tokens in
+     *     memory, or {@code null} if all of them run in the same process
+     */
+    public CachingTokenStore(
+            @NonNull AccountManager accountManager,
+            @NonNull TokenStore store,
+            int maxAccounts,
+            @Nullable TokenChangeBroadcast broadcast) {
+        this.store = store;
+        this.broadcast = broadcast;
+        this.cache =
+                new LinkedHashMap<Account, CachedTokens>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Account, CachedTokens> eldest) {
+                        return size() > maxAccounts;
+                    }
+                };
+        accountManager.addOnAccountsUpdatedListener(this, null, false);
+    }
+
+    @Nullable
+    @Override
+    public String getRefreshToken(@NonNull Account account) {
+        if (broadcast != null) {
+            return store.getRefreshToken(account);
+        }
+
+        final int generation;
+        synchronized (this) {
+            final CachedTokens tokens = cache.get(account);
+            if (tokens != null && tokens.refreshToken != null) {
+                return tokens.refreshToken;
+            }
+            generation = writes;
+        }
+
+        final String refreshToken = store.getRefreshToken(account);
+
+        synchronized (this) {
+            if (refreshToken != null && generation == writes) {
+                getOrCreate(account).refreshToken = refreshToken;
+            }
+        }
+        return refreshToken;
+    }
+
+    @Nullable
+    @Override
+    public String peekAccessToken(@NonNull Account account, @NonNull String authTokenType) {
+        final AccessToken accessToken = getAccessToken(account, authTokenType);
+        return accessToken.token;
+    }
+
+    @Override
+    public long getExpiresAt(@NonNull Account account, @NonNull String authTokenType) {
+        final AccessToken accessToken = getAccessToken(account, authTokenType);
+        return accessToken.token != null ? accessToken.expiresAt : TokenPair.NO_EXPIRY;
+    }
+
+    @Override
+    public void storeTokens(
+            @NonNull Account account, @NonNull String authTokenType, @NonNull TokenPair tokenPair) {
+        store.storeTokens(account, authTokenType, tokenPair);
+        cacheTokens(account, authTokenType, tokenPair);
+        notifyChanged(account);
+    }
+
+    @Override
+    public boolean addAccount(
+            @NonNull AccountManager accountManager,
+            @NonNull Account account,
+            @NonNull Bundle userData,
+            @NonNull String authTokenType,
+            @NonNull TokenPair tokenPair) {
+        final boolean added =
+                store.addAccount(accountManager, account, userData, authTokenType, tokenPair);
+        cacheTokens(account, authTokenType, tokenPair);
+        notifyChanged(account);
+        return added;
+    }
+
+    @Override
+    public void invalidateAccessToken(@NonNull Account account, @NonNull String accessToken) {
+        store.invalidateAccessToken(account, accessToken);
+        synchronized (this) {
+            writes++;
+            final CachedTokens tokens = cache.get(account);
+            if (tokens != null) {
+                final Iterator<AccessToken> iterator = tokens.accessTokens.values().iterator();
+                while (iterator.hasNext()) {
+                    if (accessToken.equals(iterator.next().token)) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+        notifyChanged(account);
+    }
+
+    @Override
+    public void removeTokens(@NonNull Account account) {
+        store.removeTokens(account);
+        synchronized (this) {
+            writes++;
+            cache.remove(account);
+        }
+        notifyChanged(account);
+    }
+
+    /** Drop the tokens of {@code account}, so that the authenticator reads the stored ones. */
+    @Override
+    public void onAuthTokenRequested(@NonNull Account account) {
+        synchronized (this) {
+            writes++;
+            cache.remove(account);
+        }
+        store.onAuthTokenRequested(account);
+    }
+
+    /** Drop the tokens of accounts that were removed. */
+    @Override
+    public void onAccountsUpdated(Account[] accounts) {
+        final Set<Account> existing = new HashSet<>();
+        for (Account account : accounts) {
+            existing.add(account);
+        }
+        synchronized (this) {
+            writes++;
+            cache.keySet().retainAll(existing);
+        }
+    }
+
+    @NonNull
+    private AccessToken getAccessToken(@NonNull Account account, @NonNull String authTokenType) {
+        if (broadcast != null) {
+            return readAccessToken(account, authTokenType);
+        }
+
+        final int generation;
+        synchronized (this) {
+            final CachedTokens tokens = cache.get(account);
+            final AccessToken accessToken =
+                    tokens != null ? tokens.accessTokens.get(authTokenType) : null;
+            if (accessToken != null) {
+                return accessToken;
+            }
+            generation = writes;
+        }
+
+        final AccessToken accessToken = readAccessToken(account, authTokenType);
+
+        synchronized (this) {
+            // a missing token gets read again, it might be stored by another process or the system
+            if (accessToken.token != null && generation == writes) {
+                getOrCreate(account).accessTokens.put(authTokenType, accessToken);
+            }
+        }
+        return accessToken;
+    }
+
+    @NonNull
+    private AccessToken readAccessToken(@NonNull Account account, @NonNull String authTokenType) {
+        final String token = store.peekAccessToken(account, authTokenType);
+        final long expiresAt =
+                token != null ? store.getExpiresAt(account, authTokenType) : TokenPair.NO_EXPIRY;
+        return new AccessToken(token, expiresAt);
+    }
+
+    private synchronized void cacheTokens(
+            @NonNull Account account, @NonNull String authTokenType, @NonNull TokenPair tokenPair) {
+        if (broadcast != null) {
+            return;
+        }
+        writes++;
+        final CachedTokens tokens = getOrCreate(account);
+        tokens.refreshToken = tokenPair.refreshToken;
+        tokens.accessTokens.put(
+                authTokenType, new AccessToken(tokenPair.accessToken, tokenPair.expiresAt));
+    }
+
+    private void notifyChanged(@NonNull Account account) {
+        if (broadcast != null) {
+            broadcast.send(account);
+        }
+    }
+
+    @NonNull
+    private CachedTokens getOrCreate(@NonNull Account account) {
+        CachedTokens tokens = cache.get(account);
+        if (tokens == null) {
+            tokens = new CachedTokens();
+            cache.put(account, tokens);
+        }
+        return tokens;
+    }
+
+    private static final class CachedTokens {
+        private String refreshToken;
+        private final Map<String, AccessToken> accessTokens = new HashMap<>();
+    }
+
+    /** An access token, or the lack of one if {@link #token} is {@code null}. */
+    private static final class AccessToken {
+        private final String token;
+        private final long expiresAt;
+
+        private AccessToken(@Nullable String token, long expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.davidmedenjak.auth.store;
+
+import android.accounts.Account;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davidmedenjak.auth.TokenPair;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Stores the tokens of all accounts in a single private file.
+ *
+ * <p>Tokens are kept in memory and read from the file once, when the store is first accessed.
+ * Every change rewrites the file. Writes go to a temporary file first that then replaces the
+ * previous one, so that a crash during a write will never leave a corrupted file behind.
+ *
+ * <p>If the tokens can't be read or written the store throws an {@link IllegalStateException} and
+ * keeps the previous file, so a failed refresh reports the error instead of losing the new tokens
+ * silently. A file that can be read but is corrupt gets moved to {@code <file>.corrupt} and the
+ * store starts out empty.
+ *
+ * <pre>{@code
+ * TokenStore store = new FileTokenStore(new File(context.getFilesDir(), "tokens"));
+ * }</pre>
+ *
+ * <p>Use a single instance for both the {@link com.davidmedenjak.auth.AuthenticatorService
+ * AuthenticatorService} and the {@link com.davidmedenjak.auth.manager.OAuthAccountManager
+ * OAuthAccountManager}.
+ */
+public class FileTokenStore implements TokenStore {
+
+    private static final String TAG = "FileTokenStore";
+
+    private final File file;
+    private final File tempFile;
+    private final File corruptFile;
+
+    private TokenTable tokens;
+
+    /** @param file the file to store the tokens in. Should be private to the app. */
+    public FileTokenStore(@NonNull File file) {
+        this.file = file;
+        this.tempFile = new File(file.getPath() + ".tmp");
+        this.corruptFile = new File(file.getPath() + ".corrupt");
+    }
+
+    @Nullable
+    @Override
+    public synchronized String getRefreshToken(@NonNull Account account) {
+        return getTokens().getRefreshToken(account);
+    }
+
+    @Nullable
+    @Override
+    public synchronized String peekAccessToken(
+            @NonNull Account account, @NonNull String authTokenType) {
+        return getTokens().peekAccessToken(account, authTokenType);
+    }
+
+    @Override
+    public synchronized long getExpiresAt(@NonNull Account account, @NonNull String authTokenType) {
+        return getTokens().getExpiresAt(account, authTokenType);
+    }
+
+    @Override
+    public synchronized void storeTokens(
+            @NonNull Account account, @NonNull String authTokenType, @NonNull TokenPair tokenPair) {
+        getTokens().storeTokens(account, authTokenType, tokenPair);
+        write();
+    }
+
+    @Override
+    public synchronized void invalidateAccessToken(
+            @NonNull Account account, @NonNull String accessToken) {
+        if (getTokens().invalidateAccessToken(account, accessToken)) {
+            write();
+        }
+    }
+
+    @Override
+    public synchronized void removeTokens(@NonNull Account account) {
+        if (getTokens().removeTokens(account)) {
+            write();
+        }
+    }
+
+    @NonNull
+    private TokenTable getTokens() {
+        if (tokens == null) {
+            tokens = read();
+        }
+        return tokens;
+    }
+
+    @NonNull
+    private TokenTable read() {
+        final TokenTable table = new TokenTable();
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            table.readFrom(in);
+        } catch (FileNotFoundException e) {
+            // nothing stored yet
+        } catch (EOFException | StreamCorruptedException e) {
+            // keep the file for diagnosis instead of overwriting it with the next write
+            Log.e(TAG, "Tokens in " + file + " are corrupt, moving them to " + corruptFile, e);
+            if (!file.renameTo(corruptFile)) {
+                Log.w(TAG, "Could not move " + file);
+            }
+            return new TokenTable();
+        } catch (IOException e) {
+            // the file might be readable again with the next access
+            throw new IllegalStateException("Could not read tokens from " + file, e);
+        }
+        return table;
+    }
+
+    private void write() {
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+                final DataOutputStream out =
+                        new DataOutputStream(new BufferedOutputStream(fileOut));
+                tokens.writeTo(out);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException e) {
+            // the file still has the previous tokens, read them again with the next access
+            tokens = null;
+            tempFile.delete();
+            throw new IllegalStateException("Could not write tokens to " + file, e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.davidmedenjak.auth.store;
+
+import android.accounts.Account;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davidmedenjak.auth.TokenPair;
+
+/**
+ * Keeps tokens in memory only. Users will have to log in again once the process is gone, so this
+ * is mostly useful for tests, or apps that should not persist any credentials.
+ *
+ * <p>Use a single instance for both the {@link com.davidmedenjak.auth.AuthenticatorService
+ * AuthenticatorService} and the {@link com.davidmedenjak.auth.manager.OAuthAccountManager
+ * OAuthAccountManager}, which only works if both run in the same process.
+ */
+public class InMemoryTokenStore implements TokenStore {
+
+    private final TokenTable tokens = new TokenTable();
+
+    @Nullable
+    @Override
+    public synchronized String getRefreshToken(@NonNull Account account) {
+        return tokens.getRefreshToken(account);
+    }
+
+    @Nullable
+    @Override
+    public synchronized String peekAccessToken(
+            @NonNull Account account, @NonNull String authTokenType) {
+        return tokens.peekAccessToken(account, authTokenType);
+    }
+
+    @Override
+    public synchronized long getExpiresAt(@NonNull Account account, @NonNull String authTokenType) {
+        return tokens.getExpiresAt(account, authTokenType);
+    }
+
+    @Override
+    public synchronized void storeTokens(
+            @NonNull Account account, @NonNull String authTokenType, @NonNull TokenPair tokenPair) {
+        tokens.storeTokens(account, authTokenType, tokenPair);
+    }
+
+    @Override
+    public synchronized void invalidateAccessToken(
+            @NonNull Account account, @NonNull String accessToken) {
+        tokens.invalidateAccessToken(account, accessToken);
+    }
+
+    @Override
+    public synchronized void removeTokens(@NonNull Account account) {
+        tokens.removeTokens(account);
+    }
+}
@@ -0,0 +1,136 @@
+package com.davidmedenjak.auth.store;
+
+import android.accounts.Account;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tells the other processes of the app that the tokens of an account changed, so that they can
+ * drop the tokens they keep in memory.
+ *
+ * <p>Every process creates its own instance and passes it to its {@link CachingTokenStore}, which
+ * sends a broadcast whenever it writes tokens, and to its {@link
+ * com.davidmedenjak.auth.manager.OAuthAccountManager OAuthAccountManager}, which drops the tokens
+ * of accounts changed by other processes. The broadcast only contains the account, never any
+ * tokens. Both sending and receiving it requires a signature permission declared by the library,
+ * and the receiver is not exported, so other apps can neither see nor fake it.
+ *
+ * <pre>{@code
+ * TokenChangeBroadcast broadcast = new TokenChangeBroadcast(context);
+ * TokenStore store =
+ *         new CachingTokenStore(
+ *                 accountManager,
+ *                 new AccountManagerTokenStore(accountManager),
+ *                 CachingTokenStore.DEFAULT_MAX_ACCOUNTS,
+ *                 broadcast);
+ * oauthAccountManager.listenForTokenChanges(broadcast);
+ * }</pre>
+ *
+ * <p>Changes are delivered asynchronously on the main thread, so another process might still use
+ * an old access token for a moment. Requests sent with it get retried with the new token.
+ */
+public final class TokenChangeBroadcast {
+
+    private static final String ACTION_SUFFIX = ".auth.action.TOKENS_CHANGED";
+    private static final String EXTRA_ACCOUNT = "account";
+    private static final String EXTRA_PID = "pid";
+    private static final String PERMISSION_SUFFIX = ".auth.permission.TOKENS_CHANGED";
+
+    /** {@code Context.RECEIVER_NOT_EXPORTED}, added with API 33. */
+    private static final int RECEIVER_NOT_EXPORTED = 0x4;
+
+    private final Context context;
+    private final String action;
+    private final String permission;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private BroadcastReceiver receiver;
+
+    /** @param context the context */
+    public TokenChangeBroadcast(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+        this.action = this.context.getPackageName() + ACTION_SUFFIX;
+        this.permission = this.context.getPackageName() + PERMISSION_SUFFIX;
+    }
+
+    /**
+     * Tell the other processes of the app that the tokens of {@code account} changed.
+     *
+     * @param account the account
+     */
+    void send(@NonNull Account account) {
+        final Intent intent =
+                new Intent(action)
+                        .setPackage(context.getPackageName())
+                        .putExtra(EXTRA_ACCOUNT, account)
+                        .putExtra(EXTRA_PID, Process.myPid());
+        context.sendBroadcast(intent, permission);
+    }
+
+    /**
+     * Register a listener for changes of other processes. Changes of this process are not
+     * reported, its tokens are up to date already.
+     *
+     * @param listener called on the main thread
+     */
+    public synchronized void register(@NonNull Listener listener) {
+        listeners.add(listener);
+        if (receiver == null) {
+            receiver = new Receiver();
+            final IntentFilter filter = new IntentFilter(action);
+            if (Build.VERSION.SDK_INT >= 33) {
+                // apps targeting API 34 have to declare whether the receiver is exported
+                context.registerReceiver(
+                        receiver, filter, permission, null, RECEIVER_NOT_EXPORTED);
+            } else {
+                context.registerReceiver(receiver, filter, permission, null);
+            }
+        }
+    }
+
+    /** @param listener the listener to remove */
+    public synchronized void unregister(@NonNull Listener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty() && receiver != null) {
+            context.unregisterReceiver(receiver);
+            receiver = null;
+        }
+    }
+
+    /** Receives changes of the tokens of accounts. */
+    public interface Listener {
+
+        /**
+         * Called after another process wrote or invalidated the tokens of {@code account}.
+         *
+         * @param account the account
+         */
+        void onTokensChanged(@NonNull Account account);
+    }
+
+    private final class Receiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Account account = intent.getParcelableExtra(EXTRA_ACCOUNT);
+            if (account == null) {
+                // not sent by us
+                return;
+            }
+            if (intent.getIntExtra(EXTRA_PID, 0) == Process.myPid()) {
+                // sent by this process
+                return;
+            }
+            for (Listener listener : listeners) {
+                listener.onTokensChanged(account);
+            }
+        }
+    }
+}
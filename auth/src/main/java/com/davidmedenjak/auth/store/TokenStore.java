@@ -0,0 +1,114 @@
+package com.davidmedenjak.auth.store;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davidmedenjak.auth.RefreshCoordinator;
+import com.davidmedenjak.auth.TokenPair;
+
+/**
+ * Persists the tokens of accounts.
+ *
+ * <p>By default tokens are stored with the {@link android.accounts.AccountManager AccountManager}
+ * using {@link AccountManagerTokenStore}, where every read and write is a call to another process.
+ * Apps that don't need their tokens to be visible to the system can use {@link InMemoryTokenStore}
+ * or {@link FileTokenStore} instead.
+ *
+ * <p>If you use a different store, make sure to declare {@code android:customTokens="true"} in
+ * your authenticator XML. Otherwise the framework keeps its own copy of the access tokens, which
+ * doesn't get invalidated along with the store.
+ *
+ * <p>Implementations must be thread safe.
+ */
+public interface TokenStore extends RefreshCoordinator.Store<Account> {
+
+    /**
+     * @param account the account
+     * @return the stored refresh token, or {@code null} if there is none
+     */
+    @Override
+    @Nullable
+    String getRefreshToken(@NonNull Account account);
+
+    /**
+     * @param account the account
+     * @param authTokenType the type of the token
+     * @return the stored access token, or {@code null} if there is none
+     */
+    @Override
+    @Nullable
+    String peekAccessToken(@NonNull Account account, @NonNull String authTokenType);
+
+    /**
+     * @param account the account
+     * @param authTokenType the type of the token
+     * @return the expiry of the stored access token, or {@link TokenPair#NO_EXPIRY} if unknown
+     */
+    @Override
+    long getExpiresAt(@NonNull Account account, @NonNull String authTokenType);
+
+    /**
+     * Store the tokens after a login or refresh, replacing previous ones.
+     *
+     * @param account the account
+     * @param authTokenType the type of the access token
+     * @param tokenPair the tokens to store
+     */
+    @Override
+    void storeTokens(
+            @NonNull Account account, @NonNull String authTokenType, @NonNull TokenPair tokenPair);
+
+    /**
+     * Add a new account with its first tokens, e.g. on login. The default implementation adds the
+     * account and then {@link #storeTokens(Account, String, TokenPair) stores the tokens}.
+     * Implementations that keep tokens with the {@link AccountManager} should write them along with
+     * the account where possible, so that a login takes as few calls to it as possible.
+     *
+     * @param accountManager the framework account manager
+     * @param account the account to add
+     * @param userData the user data to add the account with
+     * @param authTokenType the type of the access token
+     * @param tokenPair the tokens to store
+     * @return true if the account was added, false if it already existed and only its tokens got
+     *     stored
+     */
+    default boolean addAccount(
+            @NonNull AccountManager accountManager,
+            @NonNull Account account,
+            @NonNull Bundle userData,
+            @NonNull String authTokenType,
+            @NonNull TokenPair tokenPair) {
+        final boolean added = accountManager.addAccountExplicitly(account, null, userData);
+        storeTokens(account, authTokenType, tokenPair);
+        return added;
+    }
+
+    /**
+     * Remove an access token so that it gets refreshed the next time it is requested.
+     *
+     * @param account the account
+     * @param accessToken the invalid access token
+     */
+    void invalidateAccessToken(@NonNull Account account, @NonNull String accessToken);
+
+    /**
+     * Remove all tokens of an account, e.g. on logout.
+     *
+     * @param account the account
+     */
+    void removeTokens(@NonNull Account account);
+
+    /**
+     * Called when the {@link com.davidmedenjak.auth.OAuthAuthenticator OAuthAuthenticator} is
+     * asked for a token of {@code account}, before its tokens get read. Callers only ask for a
+     * token if they don't have a valid one, so stores that keep tokens in memory should read them
+     * from storage again. The default implementation does nothing.
+     *
+     * @param account the account
+     */
+    default void onAuthTokenRequested(@NonNull Account account) {}
+}
@@ -0,0 +1,165 @@
+package com.davidmedenjak.auth.store;
+
+import android.accounts.Account;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davidmedenjak.auth.TokenPair;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/** The tokens of all accounts, kept in memory. Not thread safe. */
+final class TokenTable {
+
+    private static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Map<Account, Credentials> accounts = new HashMap<>();
+
+    @Nullable
+    String getRefreshToken(@NonNull Account account) {
+        final Credentials credentials = accounts.get(account);
+        return credentials != null ? credentials.refreshToken : null;
+    }
+
+    @Nullable
+    String peekAccessToken(@NonNull Account account, @NonNull String authTokenType) {
+        final AccessToken accessToken = getAccessToken(account, authTokenType);
+        return accessToken != null ? accessToken.token : null;
+    }
+
+    long getExpiresAt(@NonNull Account account, @NonNull String authTokenType) {
+        final AccessToken accessToken = getAccessToken(account, authTokenType);
+        return accessToken != null ? accessToken.expiresAt : TokenPair.NO_EXPIRY;
+    }
+
+    void storeTokens(
+            @NonNull Account account, @NonNull String authTokenType, @NonNull TokenPair tokenPair) {
+        Credentials credentials = accounts.get(account);
+        if (credentials == null) {
+            credentials = new Credentials();
+            accounts.put(account, credentials);
+        }
+        credentials.refreshToken = tokenPair.refreshToken;
+        credentials.accessTokens.put(
+                authTokenType, new AccessToken(tokenPair.accessToken, tokenPair.expiresAt));
+    }
+
+    /** @return true if the token was removed */
+    boolean invalidateAccessToken(@NonNull Account account, @NonNull String accessToken) {
+        final Credentials credentials = accounts.get(account);
+        if (credentials == null) {
+            return false;
+        }
+        boolean removed = false;
+        final Iterator<AccessToken> iterator = credentials.accessTokens.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().token.equals(accessToken)) {
+                iterator.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /** @return true if there were tokens stored */
+    boolean removeTokens(@NonNull Account account) {
+        return accounts.remove(account) != null;
+    }
+
+    @Nullable
+    private AccessToken getAccessToken(@NonNull Account account, @NonNull String authTokenType) {
+        final Credentials credentials = accounts.get(account);
+        return credentials != null ? credentials.accessTokens.get(authTokenType) : null;
+    }
+
+    void writeTo(@NonNull DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeInt(accounts.size());
+        for (Map.Entry<Account, Credentials> entry : accounts.entrySet()) {
+            final Account account = entry.getKey();
+            final Credentials credentials = entry.getValue();
+            writeString(out, account.name);
+            writeString(out, account.type);
+            writeString(out, credentials.refreshToken);
+            out.writeInt(credentials.accessTokens.size());
+            for (Map.Entry<String, AccessToken> token : credentials.accessTokens.entrySet()) {
+                writeString(out, token.getKey());
+                writeString(out, token.getValue().token);
+                out.writeLong(token.getValue().expiresAt);
+            }
+        }
+    }
+
+    /**
+     * Replace the tokens with the ones previously written with {@link #writeTo(DataOutputStream)}.
+     *
+     * @param in the stream to read
+     * @throws java.io.EOFException if the data is truncated
+     * @throws StreamCorruptedException if the data is not in the expected format
+     * @throws IOException if reading the stream failed
+     */
+    void readFrom(@NonNull DataInputStream in) throws IOException {
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported version " + version);
+        }
+        accounts.clear();
+        final int accountCount = in.readInt();
+        for (int i = 0; i < accountCount; i++) {
+            final Account account = new Account(readString(in), readString(in));
+            final Credentials credentials = new Credentials();
+            credentials.refreshToken = readString(in);
+            final int tokenCount = in.readInt();
+            for (int j = 0; j < tokenCount; j++) {
+                final String authTokenType = readString(in);
+                credentials.accessTokens.put(
+                        authTokenType, new AccessToken(readString(in), in.readLong()));
+            }
+            accounts.put(account, credentials);
+        }
+    }
+
+    /** Write {@code value} as length prefixed UTF-8, which has no size limit unlike writeUTF. */
+    private static void writeString(@NonNull DataOutputStream out, @NonNull String value)
+            throws IOException {
+        final byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @NonNull
+    private static String readString(@NonNull DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new StreamCorruptedException("Invalid length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static final class Credentials {
+        private String refreshToken;
+        private final Map<String, AccessToken> accessTokens = new HashMap<>();
+    }
+
+    private static final class AccessToken {
+        private final String token;
+        private final long expiresAt;
+
+        private AccessToken(@NonNull String token, long expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -2,11 +2,21 @@ package com.davidmedenjak.auth;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
+import android.content.Context;
+import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Process;
 
 import com.davidmedenjak.auth.manager.AccountData;
+import com.davidmedenjak.auth.manager.AccountDataSnapshot;
 import com.davidmedenjak.auth.manager.OAuthAccountManager;
+import com.davidmedenjak.auth.manager.TokenType;
+import com.davidmedenjak.auth.store.AccountManagerTokenStore;
+import com.davidmedenjak.auth.store.CachingTokenStore;
+import com.davidmedenjak.auth.store.InMemoryTokenStore;
+import com.davidmedenjak.auth.store.TokenChangeBroadcast;
+import com.davidmedenjak.auth.store.TokenStore;
 
 import org.junit.Before;
 import org.junit.Ignore;
@@ -15,13 +25,20 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(RobolectricTestRunner.class)
 public class OAuthAccountManagerTest {
@@ -92,6 +109,139 @@ public class OAuthAccountManagerTest {
         assertEquals("Joan", accountManager.getAccountData("name"));
     }
 
+    @Test
+    public void accountDataStoredTogether() {
+        AccountData accountData = AccountData.with("name", "John").and("age", "42");
+
+        accountManager.login(account.name, tokens, accountData);
+
+        assertNull(am.getUserData(account, "name"));
+        assertEquals("John", accountManager.getAccountData("name"));
+        assertEquals("42", accountManager.getAccountData(account, "age"));
+    }
+
+    @Test
+    public void updateUserData_keepsOtherEntries() {
+        AccountData accountData = AccountData.with("name", "John").and("age", "42");
+        accountManager.login(account.name, tokens, accountData);
+
+        accountManager.setAccountData(AccountData.with("name", "Joan").and("age", null));
+
+        assertEquals("Joan", accountManager.getAccountData("name"));
+        assertEquals("", accountManager.getAccountData("age"));
+    }
+
+    @Test
+    public void userDataStoredSeparatelyStillRead() {
+        am.addAccountExplicitly(account, refreshToken, Bundle.EMPTY);
+        am.setUserData(account, "name", "John");
+        am.setUserData(account, "age", "42");
+        final OAuthAccountManager newManager = new OAuthAccountManager(account.type, am);
+
+        newManager.setAccountData("age", null);
+
+        assertEquals("John", newManager.getAccountData("name"));
+        assertEquals("", newManager.getAccountData("age"));
+    }
+
+    @Test
+    public void typedAccountData() {
+        AccountData accountData =
+                AccountData.with("name", "John").and("karma", 1234L).and("verified", true);
+        accountManager.login(account.name, tokens, accountData);
+
+        AccountDataSnapshot data = accountManager.getAccountData(account);
+
+        assertEquals("John", data.getString("name"));
+        assertEquals(1234L, data.getLong("karma", 0));
+        assertEquals(1234, data.getInt("karma", 0));
+        assertTrue(data.getBoolean("verified", false));
+        assertEquals(-1L, data.getLong("name", -1));
+        assertEquals("none", data.getString("missing", "none"));
+    }
+
+    @Test
+    public void cachedAccountDataCannotBeModified() {
+        accountManager.login(account.name, tokens, AccountData.with("name", "John"));
+        AccountDataSnapshot data = accountManager.getAccountData(account);
+
+        try {
+            data.keySet().remove("name");
+            fail("snapshot modified");
+        } catch (UnsupportedOperationException expected) {
+        }
+
+        assertEquals("John", accountManager.getAccountData("name"));
+    }
+
+    @Test
+    public void accountDataCachedInMemory() {
+        accountManager.login(account.name, tokens, AccountData.with("name", "John"));
+        AccountDataSnapshot data = accountManager.getAccountData(account);
+
+        // change the data without the manager knowing
+        am.setUserData(account, "oauth-account.data", "{\"name\":\"Joan\"}");
+
+        assertSame(data, accountManager.getAccountData(account));
+        assertEquals("John", accountManager.getAccountData("name"));
+    }
+
+    @Test
+    public void cachedAccountDataReplacedOnUpdate() {
+        accountManager.login(account.name, tokens, AccountData.with("name", "John"));
+        accountManager.getAccountData(account);
+
+        accountManager.setAccountData(account, AccountData.with("name", "Joan"));
+
+        assertEquals("Joan", accountManager.getAccountData(account).getString("name"));
+    }
+
+    @Test
+    public void updateMergedIntoCachedAccountData() {
+        accountManager.login(account.name, tokens, AccountData.with("name", "John"));
+        accountManager.getAccountData(account);
+        // would be read back if the cached data weren't used
+        am.setUserData(account, "oauth-account.data", "{\"name\":\"Joan\"}");
+
+        accountManager.setAccountData(account, AccountData.with("age", "42"));
+
+        OAuthAccountManager newManager = new OAuthAccountManager(account.type, am);
+        assertEquals("John", newManager.getAccountData("name"));
+        assertEquals("42", newManager.getAccountData("age"));
+    }
+
+    @Test
+    public void cachedAccountDataKeptOnUpdateOfOtherAccounts() {
+        accountManager.login(account.name, tokens, AccountData.with("name", "John"));
+        accountManager.getAccountData(account);
+        am.setUserData(account, "oauth-account.data", "{\"name\":\"Joan\"}");
+
+        am.addAccountExplicitly(new Account("other", account.type), null, null);
+
+        assertEquals("John", accountManager.getAccountData("name"));
+    }
+
+    @Test
+    public void loginStoresTokensWithNewAccount() {
+        TokenPair expiringTokens = new TokenPair(accessToken, refreshToken, 1234L);
+
+        accountManager.login(account.name, expiringTokens, AccountData.EMPTY);
+
+        assertEquals(refreshToken, am.getPassword(account));
+        assertEquals(accessToken, am.peekAuthToken(account, TokenType.BEARER));
+    }
+
+    @Test
+    public void loginUpdatesTokensOfExistingAccount() {
+        am.addAccountExplicitly(account, "oldRefreshToken", Bundle.EMPTY);
+        am.setAuthToken(account, TokenType.BEARER, "oldAccessToken");
+
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+
+        assertEquals(refreshToken, am.getPassword(account));
+        assertEquals(accessToken, am.peekAuthToken(account, TokenType.BEARER));
+    }
+
     @Test
     @Config(sdk = Build.VERSION_CODES.LOLLIPOP)
     public void logout_preLollipop() {
@@ -130,4 +280,348 @@ public class OAuthAccountManagerTest {
 
         assertNotEquals(this.accessToken, newAccessToken);
     }
+
+    @Test
+    public void accessTokenCachedInMemory() throws IOException {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+
+        // change the token without the manager knowing
+        am.setAuthToken(account, TokenType.BEARER, "otherToken");
+
+        assertEquals(accessToken, accountManager.getAccessToken());
+    }
+
+    @Test
+    public void cacheLookupsReported() throws IOException {
+        CountingAuthMetrics metrics = new CountingAuthMetrics();
+        accountManager.setMetrics(metrics);
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+
+        accountManager.getAccessToken();
+        accountManager.getAccessToken();
+        am.removeAccountExplicitly(account);
+        am.addAccountExplicitly(account, refreshToken, Bundle.EMPTY);
+        am.setAuthToken(account, TokenType.BEARER, accessToken);
+        accountManager.getAccessToken();
+
+        assertEquals(2, metrics.getLookupHits());
+        assertEquals(1, metrics.getLookupMisses());
+    }
+
+    @Test
+    public void cachedAccessTokenKeptOnUpdateOfOtherAccounts() throws IOException {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+        am.setAuthToken(account, TokenType.BEARER, "otherToken");
+
+        am.addAccountExplicitly(new Account("other", account.type), null, null);
+
+        assertEquals(accessToken, accountManager.getAccessToken());
+    }
+
+    @Test
+    public void cachedAccessTokenDroppedWhenAccountReadded() throws IOException {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+
+        am.removeAccountExplicitly(account);
+        am.addAccountExplicitly(account, refreshToken, Bundle.EMPTY);
+        am.setAuthToken(account, TokenType.BEARER, "otherToken");
+
+        assertEquals("otherToken", accountManager.getAccessToken());
+    }
+
+    @Test
+    public void cachedAccessTokenDroppedOnRefresh() throws IOException {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+
+        accountManager.getNewAccessToken(accessToken);
+        am.setAuthToken(account, TokenType.BEARER, "otherToken");
+
+        assertEquals("otherToken", accountManager.getAccessToken());
+    }
+
+    @Test
+    public void replacedAccessTokenNotInvalidatedAgain() throws IOException {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+
+        String newAccessToken = accountManager.getNewAccessToken("previousToken");
+
+        assertEquals(accessToken, newAccessToken);
+        assertEquals(accessToken, am.peekAuthToken(account, TokenType.BEARER));
+    }
+
+    @Test
+    public void sameAccessTokenOnlyInvalidatedOnce() throws IOException {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+
+        accountManager.getNewAccessToken(accessToken);
+        am.setAuthToken(account, TokenType.BEARER, "otherToken");
+        String newAccessToken = accountManager.getNewAccessToken(accessToken);
+
+        assertEquals("otherToken", newAccessToken);
+        assertEquals("otherToken", am.peekAuthToken(account, TokenType.BEARER));
+    }
+
+    @Test
+    public void loginWithCustomTokenStore() {
+        TokenStore tokenStore = new InMemoryTokenStore();
+        accountManager = new OAuthAccountManager(account.type, am, tokenStore);
+
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+
+        assertTrue(accountManager.isLoggedIn());
+        assertEquals(refreshToken, tokenStore.getRefreshToken(account));
+        assertEquals(accessToken, tokenStore.peekAccessToken(account, TokenType.BEARER));
+        assertNull(am.getPassword(account));
+    }
+
+    @Test
+    public void storeTokenExpiry() {
+        TokenPair expiringTokens = new TokenPair(accessToken, refreshToken, 1234L);
+
+        accountManager.login(account.name, expiringTokens, AccountData.EMPTY);
+
+        String expiresAt = am.getUserData(account, TokenExpiry.userDataKey(TokenType.BEARER));
+        assertEquals("1234", expiresAt);
+    }
+
+    @Test
+    public void expiredAccessTokenRefreshedProactively() throws IOException {
+        long expiresAt = System.currentTimeMillis() - 1000;
+        TokenPair expiringTokens = new TokenPair(accessToken, refreshToken, expiresAt);
+        accountManager.login(account.name, expiringTokens, AccountData.EMPTY);
+
+        String newAccessToken = accountManager.getAccessToken();
+
+        assertNotEquals(accessToken, newAccessToken);
+    }
+
+    @Test
+    public void shortLivedAccessTokenNotRefreshedRightAway() throws IOException {
+        long expiresAt = System.currentTimeMillis() + 30 * 1000;
+        TokenPair shortLivedTokens = new TokenPair(accessToken, refreshToken, expiresAt);
+        accountManager.login(account.name, shortLivedTokens, AccountData.EMPTY);
+
+        assertEquals(accessToken, accountManager.getAccessToken());
+        assertEquals(accessToken, accountManager.getAccessToken());
+    }
+
+    @Test
+    public void validAccessTokenNotRefreshed() throws IOException {
+        long expiresAt = System.currentTimeMillis() + 10 * 60 * 1000;
+        TokenPair expiringTokens = new TokenPair(accessToken, refreshToken, expiresAt);
+        accountManager.login(account.name, expiringTokens, AccountData.EMPTY);
+
+        assertEquals(accessToken, accountManager.getAccessToken());
+    }
+
+    @Test
+    public void provideAccessTokenAsync() {
+        am.addAccountExplicitly(account, refreshToken, Bundle.EMPTY);
+        am.setAuthToken(account, TokenType.BEARER, accessToken);
+        final OAuthAccountManager newManager = new OAuthAccountManager(account.type, am);
+
+        List<String> results = new ArrayList<>();
+        AccountAuthenticator.Callback callback = collectTokens(results);
+        newManager.getAccessToken(callback);
+        newManager.getAccessToken(callback);
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(2, results.size());
+        assertEquals(accessToken, results.get(0));
+        assertEquals(accessToken, results.get(1));
+    }
+
+    @Test
+    public void provideCachedAccessTokenAsync() {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+
+        List<String> results = new ArrayList<>();
+        accountManager.getAccessToken(collectTokens(results));
+
+        // served from memory, no need to wait for the main thread
+        assertEquals(1, results.size());
+        assertEquals(accessToken, results.get(0));
+    }
+
+    @Test
+    public void refreshAccessTokenAsync() {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+
+        List<String> results = new ArrayList<>();
+        accountManager.getNewAccessToken(accessToken, collectTokens(results));
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(1, results.size());
+        assertNotEquals(accessToken, results.get(0));
+    }
+
+    @Test
+    public void existingAccountsIndexed() {
+        Account other = new Account("other", account.type);
+        am.addAccountExplicitly(account, refreshToken, Bundle.EMPTY);
+        am.addAccountExplicitly(other, refreshToken, Bundle.EMPTY);
+        am.addAccountExplicitly(new Account("foreign", "other.type"), null, null);
+
+        final OAuthAccountManager newManager = new OAuthAccountManager(account.type, am);
+
+        assertEquals(Arrays.asList(account, other), newManager.getAccounts());
+        assertEquals(other, newManager.getAccount("other"));
+        assertNull(newManager.getAccount("foreign"));
+    }
+
+    @Test
+    public void indexUpdatedWithAccounts() {
+        Account other = new Account("other", account.type);
+
+        am.addAccountExplicitly(other, refreshToken, Bundle.EMPTY);
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(other, accountManager.getAccount("other"));
+        assertFalse("only logged in accounts get used", accountManager.isLoggedIn());
+    }
+
+    @Test
+    public void loginAddsToIndex() {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+        accountManager.login("other", tokens, AccountData.EMPTY);
+
+        assertEquals(2, accountManager.getAccounts().size());
+        assertEquals("other", accountManager.getAccount().name);
+    }
+
+    @Test
+    public void accessTokensCachedPerAccount() throws IOException {
+        Account other = new Account("other", account.type);
+        TokenPair otherTokens = new TokenPair("otherToken", refreshToken);
+        accountManager.login(other.name, otherTokens, AccountData.EMPTY);
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+
+        AccountAuthenticator otherAuthenticator = accountManager.getAuthenticator(other);
+        AccountAuthenticator authenticator = accountManager.getAuthenticator(account);
+
+        assertEquals("otherToken", otherAuthenticator.getAccessToken());
+        assertEquals(accessToken, authenticator.getAccessToken());
+        assertEquals(accessToken, accountManager.getAccessToken());
+
+        // invalidating the token of one account keeps the other one cached
+        am.setAuthToken(account, TokenType.BEARER, "newToken");
+        am.setAuthToken(other, TokenType.BEARER, "newOtherToken");
+        assertEquals("newToken", authenticator.getNewAccessToken(accessToken));
+        assertEquals("newToken", accountManager.getAccessToken());
+        assertEquals("otherToken", otherAuthenticator.getAccessToken());
+    }
+
+    @Test
+    public void tokensChangedByOtherProcessDropped() throws IOException {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+        accountManager.listenForTokenChanges(
+                new TokenChangeBroadcast(RuntimeEnvironment.application));
+        TokenStore otherProcess = new AccountManagerTokenStore(am);
+
+        otherProcess.storeTokens(account, TokenType.BEARER, new TokenPair("newToken", "refresh2"));
+        sendTokensChanged(account, Process.myPid() + 1);
+        assertEquals(accessToken, accountManager.getAccessToken());
+        ShadowLooper.idleMainLooper();
+
+        assertEquals("newToken", accountManager.getAccessToken());
+    }
+
+    @Test
+    public void tokensChangedByThisProcessKept() throws IOException {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+        TokenChangeBroadcast broadcast = new TokenChangeBroadcast(RuntimeEnvironment.application);
+        accountManager.listenForTokenChanges(broadcast);
+        TokenStore store =
+                new CachingTokenStore(
+                        am,
+                        new AccountManagerTokenStore(am),
+                        CachingTokenStore.DEFAULT_MAX_ACCOUNTS,
+                        broadcast);
+
+        store.invalidateAccessToken(account, "otherToken");
+        am.setAuthToken(account, TokenType.BEARER, "newToken");
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(accessToken, accountManager.getAccessToken());
+    }
+
+    @Test
+    public void reissuedAccessTokenInvalidatedAgain() throws IOException {
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+        am.setAuthToken(account, TokenType.BEARER, "newToken");
+        assertEquals("newToken", accountManager.getNewAccessToken(accessToken));
+
+        // the server hands out the same token again
+        accountManager.login(account.name, tokens, AccountData.EMPTY);
+        am.setAuthToken(account, TokenType.BEARER, "newToken2");
+
+        assertEquals("newToken2", accountManager.getNewAccessToken(accessToken));
+    }
+
+    @Test
+    public void authenticatorForNewAccount() throws IOException {
+        am.addAccountExplicitly(account, refreshToken, Bundle.EMPTY);
+        am.setAuthToken(account, TokenType.BEARER, accessToken);
+
+        // before the index got updated
+        AccountAuthenticator authenticator = accountManager.getAuthenticator(account);
+
+        assertEquals(accessToken, authenticator.getAccessToken());
+        assertEquals(Arrays.asList(account), accountManager.getAccounts());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void authenticatorForUnknownAccountRejected() {
+        accountManager.getAuthenticator(account);
+    }
+
+    @Test
+    public void authenticatorForUnknownNameRejected() {
+        try {
+            accountManager.getAuthenticator("typo");
+            throw new AssertionError("authenticator for unknown account");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(accountManager.getAccounts().isEmpty());
+        }
+    }
+
+    @Test
+    public void unknownAccountsNotIndexed() {
+        accountManager.getAccountData(account, "name");
+        accountManager.setAccountData(account, AccountData.with("name", "John"));
+
+        assertTrue(accountManager.getAccounts().isEmpty());
+        assertNull(accountManager.getAccount(account.name));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void authenticatorForOtherAccountTypeRejected() {
+        accountManager.getAuthenticator(new Account("foreign", "other.type"));
+    }
+
+    private static AccountAuthenticator.Callback collectTokens(List<String> results) {
+        return new AccountAuthenticator.Callback() {
+            @Override
+            public void onAccessToken(String accessToken) {
+                results.add(accessToken);
+            }
+
+            @Override
+            public void onError(IOException error) {
+                throw new AssertionError(error);
+            }
+        };
+    }
+
+    /** Send the broadcast of {@link TokenChangeBroadcast} as if it came from process {@code pid}. */
+    private static void sendTokensChanged(Account account, int pid) {
+        Context context = RuntimeEnvironment.application;
+        Intent intent =
+                new Intent(context.getPackageName() + ".auth.action.TOKENS_CHANGED")
+                        .setPackage(context.getPackageName())
+                        .putExtra("account", account)
+                        .putExtra("pid", pid);
+        String permission = context.getPackageName() + ".auth.permission.TOKENS_CHANGED";
+        context.sendBroadcast(intent, permission);
+    }
 }
@@ -7,26 +7,42 @@ import android.accounts.AuthenticatorException;
 import android.accounts.NetworkErrorException;
 import android.accounts.OperationCanceledException;
 import android.os.Bundle;
+import androidx.annotation.NonNull;
+
+import com.davidmedenjak.auth.store.InMemoryTokenStore;
+import com.davidmedenjak.auth.store.TokenStore;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -40,15 +56,19 @@ public class OAuthAuthenticatorTest {
     private OAuthAuthenticator authenticator;
     private AuthCallback authCallback;
     private AccountAuthenticatorResponse response;
+    private AccountAuthenticatorResponse secondResponse;
 
     @Before
     public void setUp() {
         am = AccountManager.get(RuntimeEnvironment.application);
 
         response = mock(AccountAuthenticatorResponse.class);
+        secondResponse = mock(AccountAuthenticatorResponse.class);
         authCallback = mock(AuthCallback.class);
 
-        authenticator = new OAuthAuthenticator(RuntimeEnvironment.application, authCallback);
+        // run refreshes synchronously
+        authenticator =
+                new OAuthAuthenticator(RuntimeEnvironment.application, authCallback, Runnable::run);
     }
 
     @Test
@@ -65,6 +85,46 @@ public class OAuthAuthenticatorTest {
         assertEquals(accessToken, result.getString(AccountManager.KEY_AUTHTOKEN));
     }
 
+    @Test
+    public void expiringAccessTokenGetsRefreshed() throws IOException, TokenRefreshError {
+        am.addAccountExplicitly(account, "refresh1", null);
+        am.setAuthToken(account, tokenType, "access1");
+        long expiresAt = System.currentTimeMillis() + 1000;
+        am.setUserData(account, TokenExpiry.userDataKey(tokenType), String.valueOf(expiresAt));
+
+        withServiceResponse(callback -> new TokenPair("access2", "refresh2", 1234L));
+
+        // when
+        Bundle result = getAuthTokenWithResponse();
+
+        // then
+        assertNull(result);
+        verify(authCallback, times(1)).authenticate("refresh1");
+        verify(response).onResult(argThat(new AuthResponseMatcher("access2")));
+        assertEquals("1234", am.getUserData(account, TokenExpiry.userDataKey(tokenType)));
+    }
+
+    @Test
+    public void refreshWithCustomTokenStore() throws IOException, TokenRefreshError {
+        TokenStore tokenStore = new InMemoryTokenStore();
+        tokenStore.storeTokens(account, tokenType, new TokenPair("access1", "refresh1", 1234L));
+        authenticator =
+                new OAuthAuthenticator(
+                        RuntimeEnvironment.application, authCallback, Runnable::run, tokenStore);
+
+        withServiceResponse(callback -> new TokenPair("access2", "refresh2"));
+
+        // when
+        Bundle result = getAuthTokenWithResponse();
+
+        // then
+        assertNull(result);
+        verify(authCallback, times(1)).authenticate("refresh1");
+        verify(response).onResult(argThat(new AuthResponseMatcher("access2")));
+        assertEquals("access2", tokenStore.peekAccessToken(account, tokenType));
+        assertEquals("refresh2", tokenStore.getRefreshToken(account));
+    }
+
     @Test
     public void errorOnInvalidRefreshToken() throws IOException, TokenRefreshError {
         am.addAccountExplicitly(account, null, null);
@@ -83,6 +143,84 @@ public class OAuthAuthenticatorTest {
         verify(response).onError(eq(AccountManager.ERROR_CODE_NETWORK_ERROR), any());
     }
 
+    @Test
+    public void networkErrorPausesRefreshes() throws IOException, TokenRefreshError {
+        am.addAccountExplicitly(account, "refresh1", null);
+
+        withServiceResponse(
+                callback -> {
+                    throw new UnknownHostException();
+                });
+
+        // when
+        getAuthTokenWithResponse();
+        Bundle result = getAuthTokenWithResponse(secondResponse);
+
+        // then
+        assertNull(result);
+        verify(authCallback, times(1)).authenticate("refresh1");
+        verify(secondResponse).onError(eq(AccountManager.ERROR_CODE_NETWORK_ERROR), any());
+    }
+
+    @Test
+    public void refreshRetriedAfterBackoff() throws IOException, TokenRefreshError {
+        am.addAccountExplicitly(account, "refresh1", null);
+
+        withServiceResponse(
+                callback -> {
+                    throw new UnknownHostException();
+                });
+
+        // when
+        getAuthTokenWithResponse();
+        ShadowLooper.idleMainLooper(RefreshBackoff.INITIAL_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+        withServiceResponse(callback -> new TokenPair("access1", "refresh2"));
+        getAuthTokenWithResponse(secondResponse);
+
+        // then
+        verify(authCallback, times(2)).authenticate("refresh1");
+        verify(secondResponse).onResult(argThat(new AuthResponseMatcher("access1")));
+    }
+
+    @Test
+    public void refreshPausedForRetryAfter() throws IOException, TokenRefreshError {
+        am.addAccountExplicitly(account, "refresh1", null);
+
+        withServiceResponse(
+                callback -> {
+                    throw new TokenRefreshError(
+                            AccountManager.ERROR_CODE_NETWORK_ERROR, "unavailable", 60_000L);
+                });
+
+        // when
+        getAuthTokenWithResponse();
+        ShadowLooper.idleMainLooper(30, TimeUnit.SECONDS);
+        getAuthTokenWithResponse(secondResponse);
+
+        // then
+        verify(authCallback, times(1)).authenticate("refresh1");
+        verify(secondResponse)
+                .onError(eq(AccountManager.ERROR_CODE_NETWORK_ERROR), eq("unavailable"));
+    }
+
+    @Test
+    public void otherErrorsDontPauseRefreshes() throws IOException, TokenRefreshError {
+        am.addAccountExplicitly(account, "refresh1", null);
+
+        withServiceResponse(
+                callback -> {
+                    throw new TokenRefreshError(
+                            AccountManager.ERROR_CODE_BAD_AUTHENTICATION, "invalid");
+                });
+
+        // when
+        getAuthTokenWithResponse();
+        getAuthTokenWithResponse(secondResponse);
+
+        // then
+        verify(authCallback, times(2)).authenticate("refresh1");
+    }
+
     @Test
     public void errorOnNullPointerException() throws IOException, TokenRefreshError {
         am.addAccountExplicitly(account, null, null);
@@ -129,6 +267,133 @@ public class OAuthAuthenticatorTest {
         assertEquals(accessToken, am.blockingGetAuthToken(account, "bearer", true));
     }
 
+    @Test
+    public void refreshRunsOnExecutor() throws IOException, TokenRefreshError {
+        List<Runnable> tasks = new ArrayList<>();
+        authenticator =
+                new OAuthAuthenticator(RuntimeEnvironment.application, authCallback, tasks::add);
+
+        am.addAccountExplicitly(account, null, null);
+        am.setPassword(account, "refresh1");
+        withServiceResponse(callback -> new TokenPair("access1", "refresh2"));
+
+        // when
+        Bundle result = getAuthTokenWithResponse();
+
+        // then the caller returns without waiting for the refresh
+        assertNull(result);
+        verify(authCallback, never()).authenticate(anyString());
+        verify(response, never()).onResult(any());
+
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+
+        verify(authCallback).authenticate("refresh1");
+        verify(response).onResult(argThat(new AuthResponseMatcher("access1")));
+    }
+
+    @Test
+    public void rejectedRefreshFails() throws IOException, TokenRefreshError {
+        authenticator =
+                new OAuthAuthenticator(
+                        RuntimeEnvironment.application,
+                        authCallback,
+                        task -> {
+                            throw new RejectedExecutionException();
+                        });
+
+        am.addAccountExplicitly(account, null, null);
+        am.setPassword(account, "refresh1");
+
+        // when
+        Bundle result = getAuthTokenWithResponse();
+
+        // then the refresh doesn't run on the calling thread
+        assertNull(result);
+        verify(authCallback, never()).authenticate(anyString());
+        verify(response).onError(eq(AccountManager.ERROR_CODE_REMOTE_EXCEPTION), any());
+    }
+
+    @Test
+    public void rejectedRefreshDoesNotPauseRefreshes() throws IOException, TokenRefreshError {
+        AtomicInteger executions = new AtomicInteger();
+        authenticator =
+                new OAuthAuthenticator(
+                        RuntimeEnvironment.application,
+                        authCallback,
+                        task -> {
+                            if (executions.getAndIncrement() == 0) {
+                                throw new RejectedExecutionException();
+                            }
+                            task.run();
+                        });
+        Mockito.when(authCallback.authenticate("refresh1"))
+                .thenReturn(new TokenPair("access1", "refresh2"));
+
+        am.addAccountExplicitly(account, null, null);
+        am.setPassword(account, "refresh1");
+
+        // when
+        getAuthTokenWithResponse();
+        Bundle result = getAuthTokenWithResponse(secondResponse);
+
+        // then the second refresh runs right away
+        assertNull(result);
+        verify(response).onError(eq(AccountManager.ERROR_CODE_REMOTE_EXCEPTION), any());
+        verify(authCallback).authenticate("refresh1");
+        verify(secondResponse).onResult(argThat(new AuthResponseMatcher("access1")));
+    }
+
+    @Test
+    public void asyncCallbackDeliversResult() {
+        AsyncAuthCallback asyncCallback = mock(AsyncAuthCallback.class);
+        authenticator = new OAuthAuthenticator(RuntimeEnvironment.application, asyncCallback);
+
+        am.addAccountExplicitly(account, null, null);
+        am.setPassword(account, "refresh1");
+
+        // when
+        Bundle result = getAuthTokenWithResponse();
+        Bundle secondResult = getAuthTokenWithResponse(secondResponse);
+
+        // then nothing happens until the callback gets called
+        assertNull(result);
+        assertNull(secondResult);
+        ArgumentCaptor<AsyncAuthCallback.TokenCallback> callback =
+                ArgumentCaptor.forClass(AsyncAuthCallback.TokenCallback.class);
+        verify(asyncCallback).authenticate(eq("refresh1"), callback.capture());
+        verify(response, never()).onResult(any());
+
+        callback.getValue().onTokenRefreshed(new TokenPair("access1", "refresh2"));
+
+        verify(response).onResult(argThat(new AuthResponseMatcher("access1")));
+        verify(secondResponse).onResult(argThat(new AuthResponseMatcher("access1")));
+        assertEquals("refresh2", am.getPassword(account));
+    }
+
+    @Test
+    public void asyncCallbackMapsErrors() {
+        AsyncAuthCallback asyncCallback = mock(AsyncAuthCallback.class);
+        authenticator = new OAuthAuthenticator(RuntimeEnvironment.application, asyncCallback);
+
+        am.addAccountExplicitly(account, null, null);
+        am.setPassword(account, "refresh1");
+
+        // when
+        getAuthTokenWithResponse();
+
+        ArgumentCaptor<AsyncAuthCallback.TokenCallback> callback =
+                ArgumentCaptor.forClass(AsyncAuthCallback.TokenCallback.class);
+        verify(asyncCallback).authenticate(eq("refresh1"), callback.capture());
+        callback.getValue().onError(new UnknownHostException());
+        // only the first result counts
+        callback.getValue().onTokenRefreshed(new TokenPair("access1", "refresh2"));
+
+        // then
+        verify(response).onError(eq(AccountManager.ERROR_CODE_NETWORK_ERROR), any());
+        verify(response, never()).onResult(any());
+    }
+
     @Test
     public void multipleRequestsTriggerASingleRefresh() throws IOException, TokenRefreshError {
         am.addAccountExplicitly(account, null, null);
@@ -162,6 +427,38 @@ public class OAuthAuthenticatorTest {
         verify(secondResponse).onResult(argThat(new AuthResponseMatcher(accessToken)));
     }
 
+    @Test
+    public void differentTokenTypesRefreshIndependently() throws IOException, TokenRefreshError {
+        am.addAccountExplicitly(account, null, null);
+        am.setPassword(account, "refresh1");
+
+        final String otherTokenType = "other";
+        AccountAuthenticatorResponse otherResponse = mock(AccountAuthenticatorResponse.class);
+
+        final int[] calls = {0};
+        withServiceResponse(
+                cb -> {
+                    calls[0]++;
+                    if (calls[0] == 1) {
+                        // request another token type "before api call finishes"
+                        Bundle result =
+                                getAuthTokenWithResponse(account, otherTokenType, otherResponse);
+                        return new TokenPair("access1", "refresh1");
+                    }
+                    return new TokenPair("otherAccess", "refresh1");
+                });
+
+        // when
+        Bundle result = getAuthTokenWithResponse(response);
+
+        // then
+        assertNull(result);
+        verify(authCallback, times(2)).authenticate(anyString());
+        verify(response).onResult(argThat(new AuthResponseMatcher("access1")));
+        verify(otherResponse).onResult(argThat(new AuthResponseMatcher("otherAccess")));
+        assertEquals("otherAccess", am.peekAuthToken(account, otherTokenType));
+    }
+
     @Test
     public void multipleUserRequestsTriggerRunConcurrently() throws IOException, TokenRefreshError {
 
@@ -217,6 +514,68 @@ public class OAuthAuthenticatorTest {
         }
     }
 
+    @Test
+    public void concurrentRequestsTriggerASingleRefresh() throws Exception {
+        am.addAccountExplicitly(account, null, null);
+        am.setPassword(account, "refresh");
+
+        final int callers = 200;
+        final int rounds = 5;
+
+        final AtomicInteger refreshes = new AtomicInteger();
+        final CountDownLatch[] queued = new CountDownLatch[1];
+        withServiceResponse(
+                cb -> {
+                    // hold the refresh until every other caller is waiting for the result
+                    try {
+                        assertTrue(queued[0].await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return new TokenPair("access" + refreshes.incrementAndGet(), "refresh");
+                });
+
+        for (int round = 1; round <= rounds; round++) {
+            final String accessToken = "access" + round;
+            queued[0] = new CountDownLatch(callers - 1);
+            final CountDownLatch start = new CountDownLatch(1);
+
+            AccountAuthenticatorResponse[] responses = new AccountAuthenticatorResponse[callers];
+            Thread[] threads = new Thread[callers];
+            for (int i = 0; i < callers; i++) {
+                final AccountAuthenticatorResponse response =
+                        mock(AccountAuthenticatorResponse.class);
+                responses[i] = response;
+                threads[i] =
+                        new Thread(
+                                () -> {
+                                    try {
+                                        start.await();
+                                    } catch (InterruptedException e) {
+                                        return;
+                                    }
+                                    getAuthTokenWithResponse(response);
+                                    queued[0].countDown();
+                                });
+                threads[i].start();
+            }
+
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join(TimeUnit.SECONDS.toMillis(20));
+            }
+
+            // exactly one refresh per round, and every caller receives its result
+            verify(authCallback, times(round)).authenticate(anyString());
+            for (AccountAuthenticatorResponse response : responses) {
+                verify(response, timeout(1000))
+                        .onResult(argThat(new AuthResponseMatcher(accessToken)));
+            }
+
+            am.invalidateAuthToken(account.type, accessToken);
+        }
+    }
+
     @Test
     public void returnCustomError() throws IOException, TokenRefreshError {
         am.addAccountExplicitly(account, null, null);
@@ -260,6 +619,52 @@ public class OAuthAuthenticatorTest {
         verify(response).onError(eq(errCode), anyString());
     }
 
+    @Test
+    public void refreshLoggedWithRedactedTokens() throws IOException, TokenRefreshError {
+        am.addAccountExplicitly(account, "refresh1", null);
+        List<String> logs = new ArrayList<>();
+        authenticator.setLogger(
+                new AuthLogger() {
+                    @Override
+                    public boolean isLoggable() {
+                        return true;
+                    }
+
+                    @Override
+                    public void log(@NonNull String message) {
+                        logs.add(message);
+                    }
+                });
+
+        String accessToken = "access-token-0123456789";
+        withServiceResponse(callback -> new TokenPair(accessToken, "refresh2"));
+
+        // when
+        getAuthTokenWithResponse();
+
+        // then
+        assertTrue(logs.size() >= 2);
+        for (String log : logs) {
+            assertFalse(log, log.contains(accessToken));
+        }
+        assertTrue(logs.get(logs.size() - 1).contains("acce...(23 chars)"));
+    }
+
+    @Test
+    public void disabledLoggerNotCalled() throws IOException, TokenRefreshError {
+        am.addAccountExplicitly(account, "refresh1", null);
+        AuthLogger logger = mock(AuthLogger.class);
+        authenticator.setLogger(logger);
+
+        withServiceResponse(callback -> new TokenPair("access2", "refresh2"));
+
+        // when
+        getAuthTokenWithResponse();
+
+        // then
+        verify(logger, never()).log(anyString());
+    }
+
     private void withServiceResponse(Function0<TokenPair> action)
             throws TokenRefreshError, IOException {
         withServiceResponse((obj1) -> action.run());
@@ -286,8 +691,13 @@ public class OAuthAuthenticatorTest {
 
     private Bundle getAuthTokenWithResponse(
             Account account, AccountAuthenticatorResponse response) {
+        return getAuthTokenWithResponse(account, tokenType, response);
+    }
+
+    private Bundle getAuthTokenWithResponse(
+            Account account, String tokenType, AccountAuthenticatorResponse response) {
         try {
-            return authenticator.getAuthToken(response, account, "bearer", null);
+            return authenticator.getAuthToken(response, account, tokenType, null);
         } catch (NetworkErrorException e) {
             fail(e.getMessage());
             return null;
@@ -0,0 +1,184 @@
+package com.davidmedenjak.auth.store;
+
+import android.accounts.Account;
+import android.accounts.AccountManager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davidmedenjak.auth.TokenPair;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class CachingTokenStoreTest {
+
+    private static final Account account = new Account("test", "test");
+    private static final Account other = new Account("other", "test");
+    private static final String tokenType = "bearer";
+
+    private AccountManager am;
+    private CountingTokenStore backingStore;
+    private CachingTokenStore store;
+
+    @Before
+    public void setUp() {
+        am = AccountManager.get(RuntimeEnvironment.application);
+        backingStore = new CountingTokenStore();
+        store = new CachingTokenStore(am, backingStore, 1);
+    }
+
+    @Test
+    public void storedTokensServedFromMemory() {
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1", 1234L));
+
+        assertEquals("refresh1", store.getRefreshToken(account));
+        assertEquals("access1", store.peekAccessToken(account, tokenType));
+        assertEquals(1234L, store.getExpiresAt(account, tokenType));
+        assertEquals(0, backingStore.reads);
+    }
+
+    @Test
+    public void tokensReadOnce() {
+        backingStore.storeTokens(account, tokenType, new TokenPair("access1", "refresh1", 1234L));
+
+        store.getRefreshToken(account);
+        store.peekAccessToken(account, tokenType);
+        store.getExpiresAt(account, tokenType);
+        store.getRefreshToken(account);
+        store.peekAccessToken(account, tokenType);
+
+        assertEquals(3, backingStore.reads);
+    }
+
+    @Test
+    public void missingTokensReadAgain() {
+        assertNull(store.peekAccessToken(account, tokenType));
+        assertNull(store.getRefreshToken(account));
+
+        backingStore.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+
+        assertEquals("access1", store.peekAccessToken(account, tokenType));
+        assertEquals("refresh1", store.getRefreshToken(account));
+    }
+
+    @Test
+    public void tokensReadAgainWhenAuthTokenRequested() {
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+        backingStore.storeTokens(account, tokenType, new TokenPair("access2", "refresh2"));
+
+        store.onAuthTokenRequested(account);
+
+        assertEquals("access2", store.peekAccessToken(account, tokenType));
+        assertEquals("refresh2", store.getRefreshToken(account));
+    }
+
+    @Test
+    public void invalidatedTokenDropped() {
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+
+        store.invalidateAccessToken(account, "access1");
+
+        assertNull(store.peekAccessToken(account, tokenType));
+        assertNull(backingStore.peekAccessToken(account, tokenType));
+        assertEquals("refresh1", store.getRefreshToken(account));
+    }
+
+    @Test
+    public void removedTokensDropped() {
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+
+        store.removeTokens(account);
+
+        assertNull(store.getRefreshToken(account));
+    }
+
+    @Test
+    public void removedAccountsDropped() {
+        am.addAccountExplicitly(account, null, null);
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+        backingStore.removeTokens(account);
+
+        am.removeAccountExplicitly(account);
+
+        assertNull(store.getRefreshToken(account));
+    }
+
+    @Test
+    public void leastRecentlyUsedAccountDropped() {
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+        store.storeTokens(other, tokenType, new TokenPair("access2", "refresh2"));
+
+        assertEquals("refresh1", store.getRefreshToken(account));
+
+        assertEquals(1, backingStore.reads);
+    }
+
+    @Test
+    public void tokensChangedByOtherProcessRead() {
+        CachingTokenStore first = newProcessStore();
+        CachingTokenStore second = newProcessStore();
+        first.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+        assertEquals("refresh1", second.getRefreshToken(account));
+        assertEquals("access1", second.peekAccessToken(account, tokenType));
+
+        first.storeTokens(account, tokenType, new TokenPair("access2", "refresh2"));
+
+        assertEquals("refresh2", second.getRefreshToken(account));
+        assertEquals("access2", second.peekAccessToken(account, tokenType));
+    }
+
+    @Test
+    public void tokensRotatedByOtherProcessNotServed() {
+        CachingTokenStore first = newProcessStore();
+        first.storeTokens(account, tokenType, new TokenPair("access1", "refresh1", 1234L));
+
+        // another process rotated the tokens, its broadcast didn't arrive yet
+        backingStore.storeTokens(account, tokenType, new TokenPair("access2", "refresh2", 5678L));
+
+        assertEquals("refresh2", first.getRefreshToken(account));
+        assertEquals("access2", first.peekAccessToken(account, tokenType));
+        assertEquals(5678L, first.getExpiresAt(account, tokenType));
+    }
+
+    /** Every process has its own broadcast and cache in front of the same storage. */
+    private CachingTokenStore newProcessStore() {
+        TokenChangeBroadcast broadcast = new TokenChangeBroadcast(RuntimeEnvironment.application);
+        return new CachingTokenStore(
+                am, backingStore, CachingTokenStore.DEFAULT_MAX_ACCOUNTS, broadcast);
+    }
+
+    /** Counts the reads of the tokens kept in memory. */
+    private static class CountingTokenStore extends InMemoryTokenStore {
+        private int reads;
+
+        @Nullable
+        @Override
+        public synchronized String getRefreshToken(@NonNull Account account) {
+            reads++;
+            return super.getRefreshToken(account);
+        }
+
+        @Nullable
+        @Override
+        public synchronized String peekAccessToken(
+                @NonNull Account account, @NonNull String authTokenType) {
+            reads++;
+            return super.peekAccessToken(account, authTokenType);
+        }
+
+        @Override
+        public synchronized long getExpiresAt(
+                @NonNull Account account, @NonNull String authTokenType) {
+            reads++;
+            return super.getExpiresAt(account, authTokenType);
+        }
+    }
+}
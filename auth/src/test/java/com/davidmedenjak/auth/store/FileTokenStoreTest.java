@@ -0,0 +1,107 @@
+package com.davidmedenjak.auth.store;
+
+import android.accounts.Account;
+
+import com.davidmedenjak.auth.TokenPair;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class FileTokenStoreTest {
+
+    private static final Account account = new Account("test", "test");
+    private static final String tokenType = "bearer";
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private FileTokenStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "tokens");
+        store = new FileTokenStore(file);
+    }
+
+    @Test
+    public void tokensSurviveRestart() {
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1", 1234L));
+
+        FileTokenStore restored = new FileTokenStore(file);
+
+        assertEquals("refresh1", restored.getRefreshToken(account));
+        assertEquals("access1", restored.peekAccessToken(account, tokenType));
+        assertEquals(1234L, restored.getExpiresAt(account, tokenType));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void invalidatedTokenRemoved() {
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+
+        store.invalidateAccessToken(account, "access1");
+
+        assertNull(new FileTokenStore(file).peekAccessToken(account, tokenType));
+        assertEquals("refresh1", new FileTokenStore(file).getRefreshToken(account));
+    }
+
+    @Test
+    public void removedTokensGone() {
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+
+        store.removeTokens(account);
+
+        assertNull(new FileTokenStore(file).getRefreshToken(account));
+    }
+
+    @Test
+    public void oversizedTokensStored() {
+        // writeUTF() only supports up to 64KB
+        String accessToken = new String(new char[70_000]).replace('\0', 'a');
+        store.storeTokens(account, tokenType, new TokenPair(accessToken, "refresh1"));
+
+        assertEquals(accessToken, new FileTokenStore(file).peekAccessToken(account, tokenType));
+    }
+
+    @Test
+    public void corruptedFileIgnored() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] {1, 2, 3});
+        }
+
+        assertNull(store.getRefreshToken(account));
+        assertEquals(TokenPair.NO_EXPIRY, store.getExpiresAt(account, tokenType));
+        assertTrue(new File(file.getPath() + ".corrupt").exists());
+    }
+
+    @Test
+    public void failedWriteKeepsPreviousTokens() {
+        store.storeTokens(account, tokenType, new TokenPair("access1", "refresh1"));
+        // a directory in place of the temporary file fails the write
+        assertTrue(new File(file.getPath() + ".tmp").mkdir());
+
+        try {
+            store.storeTokens(account, tokenType, new TokenPair("access2", "refresh2"));
+            fail("write failure not reported");
+        } catch (IllegalStateException expected) {
+        }
+
+        assertEquals("refresh1", store.getRefreshToken(account));
+        assertEquals("refresh1", new FileTokenStore(file).getRefreshToken(account));
+    }
+}
@@ -0,0 +1,130 @@
+package com.davidmedenjak.auth.benchmark;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davidmedenjak.auth.Clock;
+import com.davidmedenjak.auth.RefreshCoordinator;
+import com.davidmedenjak.auth.TokenPair;
+import com.davidmedenjak.auth.TokenRefreshError;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An expired access token requested by many callers at once. Every operation drops the token and
+ * waits until all callers received the refreshed one, which should take a single refresh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RefreshCoordinatorBenchmark {
+
+    private static final String ACCOUNT = "account";
+    private static final String TOKEN_TYPE = "bearer";
+
+    @Param({"1", "4", "16", "64", "256"})
+    public int callers;
+
+    private ExecutorService executor;
+    private MemoryStore store;
+    private RefreshCoordinator<String> coordinator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(callers);
+        store = new MemoryStore();
+        store.storeTokens(ACCOUNT, TOKEN_TYPE, new TokenPair("token-0", "refresh"));
+
+        final AtomicInteger refreshes = new AtomicInteger();
+        coordinator =
+                new RefreshCoordinator<>(
+                        store,
+                        (refreshToken, callback) ->
+                                callback.onTokenRefreshed(
+                                        new TokenPair(
+                                                "token-" + refreshes.incrementAndGet(),
+                                                refreshToken)),
+                        Clock.SYSTEM);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void refresh() throws InterruptedException {
+        store.accessTokens.remove(TOKEN_TYPE);
+
+        final CountDownLatch done = new CountDownLatch(callers);
+        final RefreshCoordinator.Listener listener =
+                new RefreshCoordinator.Listener() {
+                    @Override
+                    public void onAccessToken(@NonNull String accessToken) {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onError(@NonNull TokenRefreshError error) {
+                        done.countDown();
+                    }
+                };
+        for (int i = 0; i < callers; i++) {
+            executor.execute(
+                    () -> {
+                        if (coordinator.getAccessToken(ACCOUNT, TOKEN_TYPE, listener) != null) {
+                            done.countDown();
+                        }
+                    });
+        }
+        done.await();
+    }
+
+    private static final class MemoryStore implements RefreshCoordinator.Store<String> {
+
+        private final ConcurrentHashMap<String, String> accessTokens = new ConcurrentHashMap<>();
+        private volatile String refreshToken;
+
+        @Nullable
+        @Override
+        public String getRefreshToken(@NonNull String account) {
+            return refreshToken;
+        }
+
+        @Nullable
+        @Override
+        public String peekAccessToken(@NonNull String account, @NonNull String authTokenType) {
+            return accessTokens.get(authTokenType);
+        }
+
+        @Override
+        public long getExpiresAt(@NonNull String account, @NonNull String authTokenType) {
+            return TokenPair.NO_EXPIRY;
+        }
+
+        @Override
+        public void storeTokens(
+                @NonNull String account,
+                @NonNull String authTokenType,
+                @NonNull TokenPair tokenPair) {
+            refreshToken = tokenPair.refreshToken;
+            accessTokens.put(authTokenType, tokenPair.accessToken);
+        }
+    }
+}
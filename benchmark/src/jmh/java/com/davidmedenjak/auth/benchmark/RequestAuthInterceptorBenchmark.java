@@ -0,0 +1,38 @@
+package com.davidmedenjak.auth.benchmark;
+
+import com.davidmedenjak.auth.okhttp.RequestAuthInterceptor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/** Cost of adding the {@code Authorization} header to a request. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RequestAuthInterceptorBenchmark {
+
+    private RequestAuthInterceptor interceptor;
+    private FakeChain chain;
+
+    @Setup
+    public void setUp() {
+        interceptor = new RequestAuthInterceptor(new RotatingAccountAuthenticator());
+        chain = new FakeChain(new Request.Builder().url("https://example.com/api/me").build());
+    }
+
+    @Benchmark
+    public Response intercept() throws IOException {
+        return interceptor.intercept(chain);
+    }
+}
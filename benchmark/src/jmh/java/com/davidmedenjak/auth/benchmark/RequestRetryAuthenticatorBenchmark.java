@@ -0,0 +1,64 @@
+package com.davidmedenjak.auth.benchmark;
+
+import com.davidmedenjak.auth.okhttp.RequestRetryAuthenticator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Many threads retrying {@code 401} responses at once. Every thread retries with the token it used
+ * last, so a retry either refreshes the token or finds out that another thread already did.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(16)
+public class RequestRetryAuthenticatorBenchmark {
+
+    private RotatingAccountAuthenticator accountAuthenticator;
+    private RequestRetryAuthenticator retryAuthenticator;
+    private Request request;
+
+    @Setup
+    public void setUp() {
+        accountAuthenticator = new RotatingAccountAuthenticator();
+        retryAuthenticator = new RequestRetryAuthenticator(accountAuthenticator);
+        request = new Request.Builder().url("https://example.com/api/me").build();
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+        String accessToken = "token-0";
+    }
+
+    @Benchmark
+    public Request authenticate(Caller caller) throws IOException {
+        final Response unauthorized =
+                new Response.Builder()
+                        .request(
+                                request.newBuilder()
+                                        .header("Authorization", "Bearer " + caller.accessToken)
+                                        .build())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(401)
+                        .message("Unauthorized")
+                        .build();
+
+        final Request retry = retryAuthenticator.authenticate(null, unauthorized);
+        caller.accessToken = retry.header("Authorization").substring("Bearer ".length());
+        return retry;
+    }
+}
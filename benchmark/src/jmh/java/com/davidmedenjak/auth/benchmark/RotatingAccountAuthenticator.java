@@ -0,0 +1,33 @@
+package com.davidmedenjak.auth.benchmark;
+
+import androidx.annotation.NonNull;
+
+import com.davidmedenjak.auth.AccountAuthenticator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Hands out a new access token every time the current one gets reported as invalid. */
+final class RotatingAccountAuthenticator implements AccountAuthenticator {
+
+    private final AtomicInteger refreshes = new AtomicInteger();
+    private volatile String accessToken = "token-0";
+
+    @NonNull
+    @Override
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    @NonNull
+    @Override
+    public synchronized String getNewAccessToken(String invalidAccessToken) {
+        if (accessToken.equals(invalidAccessToken)) {
+            accessToken = "token-" + refreshes.incrementAndGet();
+        }
+        return accessToken;
+    }
+
+    int getRefreshCount() {
+        return refreshes.get();
+    }
+}
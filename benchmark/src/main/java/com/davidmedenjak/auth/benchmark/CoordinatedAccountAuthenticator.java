@@ -0,0 +1,184 @@
+package com.davidmedenjak.auth.benchmark;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.davidmedenjak.auth.AccountAuthenticator;
+import com.davidmedenjak.auth.Clock;
+import com.davidmedenjak.auth.RefreshCoordinator;
+import com.davidmedenjak.auth.TokenPair;
+import com.davidmedenjak.auth.TokenRefreshError;
+import com.davidmedenjak.auth.TokenRefresher;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * An {@link AccountAuthenticator} that fetches tokens from the {@link TokenServer} through a
+ * {@link RefreshCoordinator}, the same way the Android {@code OAuthAuthenticator} does.
+ */
+final class CoordinatedAccountAuthenticator implements AccountAuthenticator, TokenRefresher {
+
+    private static final String ACCOUNT = "account";
+    private static final String TOKEN_TYPE = "bearer";
+
+    private final OkHttpClient tokenClient;
+    private final HttpUrl tokenUrl;
+    private final boolean reportExpiry;
+
+    private final Store store = new Store();
+    private final RefreshCoordinator<String> coordinator;
+
+    /**
+     * @param tokenClient the client used to call the token endpoint, without authentication
+     * @param tokenUrl the token endpoint
+     * @param reportExpiry whether to store the expiry of tokens, so they get refreshed before they
+     *     expire, or only learn about it from {@code 401} responses
+     * @param refreshWindowMillis how long before their expiry tokens get refreshed
+     */
+    CoordinatedAccountAuthenticator(
+            OkHttpClient tokenClient,
+            HttpUrl tokenUrl,
+            boolean reportExpiry,
+            long refreshWindowMillis) {
+        this.tokenClient = tokenClient;
+        this.tokenUrl = tokenUrl;
+        this.reportExpiry = reportExpiry;
+        this.coordinator = new RefreshCoordinator<>(store, this, Clock.SYSTEM);
+        coordinator.setRefreshWindowMillis(refreshWindowMillis);
+    }
+
+    @NonNull
+    @Override
+    public String getAccessToken() throws IOException {
+        final Result result = new Result();
+        final String accessToken = coordinator.getAccessToken(ACCOUNT, TOKEN_TYPE, result);
+        if (accessToken != null) {
+            return accessToken;
+        }
+        return result.await();
+    }
+
+    @NonNull
+    @Override
+    public String getNewAccessToken(String invalidAccessToken) throws IOException {
+        if (invalidAccessToken != null) {
+            store.invalidateAccessToken(invalidAccessToken);
+        }
+        return getAccessToken();
+    }
+
+    @Override
+    public void authenticate(@NonNull String refreshToken, @NonNull TokenCallback callback) {
+        final Request request =
+                new Request.Builder()
+                        .url(tokenUrl)
+                        .post(RequestBody.create(MediaType.get("text/plain"), refreshToken))
+                        .build();
+        tokenClient
+                .newCall(request)
+                .enqueue(
+                        new okhttp3.Callback() {
+                            @Override
+                            public void onFailure(Call call, IOException e) {
+                                callback.onError(e);
+                            }
+
+                            @Override
+                            public void onResponse(Call call, Response response)
+                                    throws IOException {
+                                final String[] body = response.body().string().split("\n");
+                                final long expiresAt =
+                                        reportExpiry
+                                                ? System.currentTimeMillis()
+                                                        + Long.parseLong(body[1])
+                                                : TokenPair.NO_EXPIRY;
+                                callback.onTokenRefreshed(
+                                        new TokenPair(body[0], refreshToken, expiresAt));
+                            }
+                        });
+    }
+
+    /** Keeps the tokens of the single simulated account. */
+    private static final class Store implements RefreshCoordinator.Store<String> {
+
+        private final AtomicReference<TokenPair> tokens = new AtomicReference<>();
+        private volatile String refreshToken = "refresh";
+
+        @Nullable
+        @Override
+        public String getRefreshToken(@NonNull String account) {
+            return refreshToken;
+        }
+
+        @Nullable
+        @Override
+        public String peekAccessToken(@NonNull String account, @NonNull String authTokenType) {
+            final TokenPair tokenPair = tokens.get();
+            return tokenPair != null ? tokenPair.accessToken : null;
+        }
+
+        @Override
+        public long getExpiresAt(@NonNull String account, @NonNull String authTokenType) {
+            final TokenPair tokenPair = tokens.get();
+            return tokenPair != null ? tokenPair.expiresAt : TokenPair.NO_EXPIRY;
+        }
+
+        @Override
+        public void storeTokens(
+                @NonNull String account,
+                @NonNull String authTokenType,
+                @NonNull TokenPair tokenPair) {
+            refreshToken = tokenPair.refreshToken;
+            tokens.set(tokenPair);
+        }
+
+        private void invalidateAccessToken(@NonNull String accessToken) {
+            final TokenPair tokenPair = tokens.get();
+            if (tokenPair != null && tokenPair.accessToken.equals(accessToken)) {
+                tokens.compareAndSet(tokenPair, null);
+            }
+        }
+    }
+
+    private static final class Result implements RefreshCoordinator.Listener {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile String accessToken;
+        private volatile TokenRefreshError error;
+
+        @Override
+        public void onAccessToken(@NonNull String accessToken) {
+            this.accessToken = accessToken;
+            done.countDown();
+        }
+
+        @Override
+        public void onError(@NonNull TokenRefreshError error) {
+            this.error = error;
+            done.countDown();
+        }
+
+        private String await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (error != null) {
+                throw new IOException("Token refresh failed with " + error.getCode());
+            }
+            return accessToken;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.davidmedenjak.auth.benchmark;
+
+import com.davidmedenjak.auth.AccountAuthenticator;
+import com.davidmedenjak.auth.okhttp.RequestAuthInterceptor;
+import com.davidmedenjak.auth.okhttp.RequestRetryAuthenticator;
+import com.davidmedenjak.auth.okhttp.TokenRefreshGate;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Drives many concurrent calls through an {@link OkHttpClient} using {@link
+ * RequestAuthInterceptor} and {@link RequestRetryAuthenticator} against a {@link TokenServer},
+ * while access tokens expire and get revoked.
+ *
+ * <p>Reports how often the token endpoint got called, how many API requests were wasted on
+ * {@code 401} responses, and how much latency authentication added to the calls.
+ *
+ * <p>Calls get retried only once, so with a {@code revokeRate} above 0 a few calls are expected to
+ * fail: their retry was sent with a new token that another call revoked in the meantime. These get
+ * reported as rejected retries. Any other failure points to a bug.
+ *
+ * <p>Options are passed as {@code key=value} arguments, see {@link #DEFAULTS}:
+ *
+ * <pre>
+ * ./gradlew :benchmark:simulateLoad -Psimulation="calls=20000 concurrency=256 gate=false"
+ * </pre>
+ */
+public final class LoadSimulation {
+
+    private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+    /** Loggers are only weakly referenced, keep the configured level around. */
+    private static final Logger SERVER_LOGGER = Logger.getLogger(MockWebServer.class.getName());
+
+    static {
+        // total number of API calls
+        DEFAULTS.put("calls", "5000");
+        // calls in flight at the same time
+        DEFAULTS.put("concurrency", "64");
+        // lifetime of access tokens issued by the server
+        DEFAULTS.put("tokenLifetimeMillis", "1000");
+        // time the token endpoint takes to respond
+        DEFAULTS.put("tokenLatencyMillis", "200");
+        // time the API takes to respond
+        DEFAULTS.put("apiLatencyMillis", "5");
+        // share of valid API calls that revoke the token with a 401, failing the retries that
+        // were sent with the same token
+        DEFAULTS.put("revokeRate", "0.001");
+        // whether the client knows when tokens expire, or learns about it from 401 responses
+        DEFAULTS.put("reportExpiry", "false");
+        // how long before their reported expiry tokens get refreshed
+        DEFAULTS.put("refreshWindowMillis", "100");
+        // whether the interceptor and authenticator share a TokenRefreshGate
+        DEFAULTS.put("gate", "true");
+    }
+
+    private LoadSimulation() {}
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            final String[] option = arg.split("=", 2);
+            if (option.length != 2 || !DEFAULTS.containsKey(option[0])) {
+                throw new IllegalArgumentException(
+                        "Unknown option `" + arg + "`, expected one of " + DEFAULTS.keySet());
+            }
+            options.put(option[0], option[1]);
+        }
+
+        final int calls = Integer.parseInt(options.get("calls"));
+        final int concurrency = Integer.parseInt(options.get("concurrency"));
+        final long apiLatencyMillis = Long.parseLong(options.get("apiLatencyMillis"));
+
+        final TokenServer tokenServer =
+                new TokenServer(
+                        Long.parseLong(options.get("tokenLifetimeMillis")),
+                        Long.parseLong(options.get("tokenLatencyMillis")),
+                        apiLatencyMillis,
+                        Double.parseDouble(options.get("revokeRate")));
+        // MockWebServer logs every request
+        SERVER_LOGGER.setLevel(Level.WARNING);
+        final MockWebServer server = new MockWebServer();
+        server.setDispatcher(tokenServer);
+        server.start();
+
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(concurrency);
+        dispatcher.setMaxRequestsPerHost(concurrency);
+        final OkHttpClient baseClient = new OkHttpClient.Builder().dispatcher(dispatcher).build();
+
+        final AccountAuthenticator authenticator =
+                new CoordinatedAccountAuthenticator(
+                        baseClient,
+                        server.url(TokenServer.TOKEN_PATH),
+                        Boolean.parseBoolean(options.get("reportExpiry")),
+                        Long.parseLong(options.get("refreshWindowMillis")));
+        final OkHttpClient client;
+        if (Boolean.parseBoolean(options.get("gate"))) {
+            final TokenRefreshGate gate = new TokenRefreshGate();
+            client =
+                    baseClient
+                            .newBuilder()
+                            .addInterceptor(new RequestAuthInterceptor(authenticator, gate))
+                            .authenticator(new RequestRetryAuthenticator(authenticator, gate))
+                            .build();
+        } else {
+            client =
+                    baseClient
+                            .newBuilder()
+                            .addInterceptor(new RequestAuthInterceptor(authenticator))
+                            .authenticator(new RequestRetryAuthenticator(authenticator))
+                            .build();
+        }
+
+        final long[] latencies = new long[calls];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger rejectedRetries = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final ExecutorService callers = Executors.newFixedThreadPool(concurrency);
+        final long start = System.nanoTime();
+        for (int i = 0; i < concurrency; i++) {
+            callers.execute(
+                    () -> {
+                        int call;
+                        while ((call = next.getAndIncrement()) < calls) {
+                            final Request request =
+                                    new Request.Builder().url(server.url("/api/" + call)).build();
+                            final long callStart = System.nanoTime();
+                            try (Response response = client.newCall(request).execute()) {
+                                if (response.code() == 401) {
+                                    rejectedRetries.incrementAndGet();
+                                } else if (!response.isSuccessful()) {
+                                    errors.incrementAndGet();
+                                }
+                            } catch (IOException e) {
+                                errors.incrementAndGet();
+                            }
+                            latencies[call] = System.nanoTime() - callStart;
+                        }
+                    });
+        }
+        callers.shutdown();
+        callers.awaitTermination(1, TimeUnit.HOURS);
+        final long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        server.shutdown();
+        dispatcher.executorService().shutdown();
+        baseClient.connectionPool().evictAll();
+
+        Arrays.sort(latencies);
+        final long apiLatencyNanos = TimeUnit.MILLISECONDS.toNanos(apiLatencyMillis);
+
+        System.out.println("options            " + options);
+        System.out.println("duration           " + durationMillis + " ms");
+        System.out.println(
+                "calls              "
+                        + calls
+                        + " ("
+                        + (rejectedRetries.get() + errors.get())
+                        + " failed)");
+        System.out.println(
+                "rejected retries   "
+                        + rejectedRetries.get()
+                        + " sent with a token revoked in the meantime");
+        System.out.println("errors             " + errors.get());
+        System.out.println("token requests     " + tokenServer.tokenRequests.get());
+        System.out.println("api requests       " + tokenServer.apiRequests.get());
+        System.out.println(
+                "wasted requests    "
+                        + tokenServer.unauthorized.get()
+                        + " answered with 401");
+        System.out.printf(
+                "added latency p50  %.1f ms%n", addedMillis(latencies, 0.50, apiLatencyNanos));
+        System.out.printf(
+                "added latency p99  %.1f ms%n", addedMillis(latencies, 0.99, apiLatencyNanos));
+        System.out.printf(
+                "added latency max  %.1f ms%n", addedMillis(latencies, 1.00, apiLatencyNanos));
+    }
+
+    /** The latency of the sorted {@code latencies} at {@code percentile} above the API latency. */
+    private static double addedMillis(long[] latencies, double percentile, long apiLatencyNanos) {
+        final int index = (int) Math.ceil(percentile * latencies.length) - 1;
+        final long added = latencies[Math.max(index, 0)] - apiLatencyNanos;
+        return Math.max(added, 0) / 1_000_000d;
+    }
+}
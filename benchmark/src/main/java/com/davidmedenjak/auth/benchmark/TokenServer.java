@@ -0,0 +1,85 @@
+package com.davidmedenjak.auth.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * A fake OAuth backend. {@code POST /token} issues a new access token after some latency, every
+ * other path is an API call that requires a valid access token.
+ *
+ * <p>Access tokens expire after a fixed lifetime. A share of otherwise valid API calls gets
+ * rejected with {@code 401} and revokes the token, like a server side logout or key rotation.
+ */
+final class TokenServer extends Dispatcher {
+
+    static final String TOKEN_PATH = "/token";
+
+    private final long tokenLifetimeMillis;
+    private final long tokenLatencyMillis;
+    private final long apiLatencyMillis;
+    private final double revokeRate;
+    private final Random random = new Random(42);
+
+    /** Valid access tokens by their expiry. */
+    private final ConcurrentHashMap<String, Long> accessTokens = new ConcurrentHashMap<>();
+
+    final AtomicInteger tokenRequests = new AtomicInteger();
+    final AtomicInteger apiRequests = new AtomicInteger();
+    final AtomicInteger unauthorized = new AtomicInteger();
+
+    TokenServer(
+            long tokenLifetimeMillis,
+            long tokenLatencyMillis,
+            long apiLatencyMillis,
+            double revokeRate) {
+        this.tokenLifetimeMillis = tokenLifetimeMillis;
+        this.tokenLatencyMillis = tokenLatencyMillis;
+        this.apiLatencyMillis = apiLatencyMillis;
+        this.revokeRate = revokeRate;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        if (TOKEN_PATH.equals(request.getPath())) {
+            return issueToken();
+        }
+        return serveApi(request);
+    }
+
+    private MockResponse issueToken() throws InterruptedException {
+        final int id = tokenRequests.incrementAndGet();
+        Thread.sleep(tokenLatencyMillis);
+
+        final String accessToken = "token-" + id;
+        accessTokens.put(accessToken, System.currentTimeMillis() + tokenLifetimeMillis);
+        return new MockResponse().setBody(accessToken + "\n" + tokenLifetimeMillis);
+    }
+
+    private MockResponse serveApi(RecordedRequest request) throws InterruptedException {
+        apiRequests.incrementAndGet();
+        Thread.sleep(apiLatencyMillis);
+
+        final String authorization = request.getHeader("Authorization");
+        final String accessToken =
+                authorization != null ? authorization.substring("Bearer ".length()) : "";
+        final Long expiresAt = accessTokens.get(accessToken);
+
+        if (expiresAt == null || expiresAt < System.currentTimeMillis() || revoke()) {
+            accessTokens.remove(accessToken);
+            unauthorized.incrementAndGet();
+            return new MockResponse().setResponseCode(401);
+        }
+        return new MockResponse().setBody("{}");
+    }
+
+    private boolean revoke() {
+        synchronized (random) {
+            return random.nextDouble() < revokeRate;
+        }
+    }
+}